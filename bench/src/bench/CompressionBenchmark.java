@@ -0,0 +1,57 @@
+package bench;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gx.GXTiler;
+import gx.PixelSource;
+import packer.Compressor;
+
+/**
+ * Compressing a tiled RGBA8 texture with each compression setting
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CompressionBenchmark {
+	@Param({ "64", "256", "1024", "4096" })
+	public int					size;
+
+	@Param({ "ABGR", "BGR" })
+	public SyntheticImages.Type	type;
+
+	/** See Compressor.Setting.parse() */
+	@Param({ "gzip", "deflate:1", "deflate:9", "deflate:9:filtered" })
+	public String				setting;
+
+	private byte[]				gxTexture;
+	private Compressor			compressor;
+
+	@Setup
+	public void setup() {
+		PixelSource src = PixelSource.wrap(SyntheticImages.create(size, size, type), null, false);
+		gxTexture = GXTiler.tileRGBA8(src, null);
+		compressor = new Compressor(Collections.singletonList(Compressor.Setting.parse(setting)), false);
+	}
+
+	@Benchmark
+	public Compressor.Result compress() throws IOException {
+		return compressor.compress(gxTexture);
+	}
+}
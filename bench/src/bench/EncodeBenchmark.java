@@ -0,0 +1,71 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gx.CMPREncoder;
+import gx.GXFormat;
+import gx.GXTiler;
+import gx.PixelSource;
+
+/**
+ * Tiling a decoded texture into each GX format, what ArchiveEntry.process()
+ * spends its time on between decoding and compressing
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EncodeBenchmark {
+	@Param({ "64", "256", "1024", "4096" })
+	public int						size;
+
+	@Param({ "ABGR", "BGR", "INT_ARGB", "GREY_ALPHA" })
+	public SyntheticImages.Type		type;
+
+	@Param({ "RGBA8", "RGB5A3", "RGB565", "IA8", "I8", "CMPR" })
+	public String					format;
+
+	private PixelSource				src;
+	private int						gxFormat;
+	private byte[]					out;
+
+	@Setup
+	public void setup() {
+		src = PixelSource.wrap(SyntheticImages.create(size, size, type), null, false);
+		gxFormat = -1;
+		for (int f = 0; f < 16; f++) {
+			if (GXFormat.getName(f).equals(format)) {
+				gxFormat = f;
+			}
+		}
+		if (gxFormat < 0) {
+			throw new IllegalArgumentException("Unknown GX format: " + format);
+		}
+		// Encode into the same buffer every time, allocating 64MB per call
+		// would measure the GC instead
+		out = new byte[gxFormat == GXFormat.CMPR ? CMPREncoder.getCMPRSize(size, size) : GXTiler.getSize(gxFormat,
+				size, size)];
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		if (gxFormat == GXFormat.CMPR) {
+			return CMPREncoder.encode(src, out);
+		}
+		return GXTiler.tile(src, gxFormat, out);
+	}
+}
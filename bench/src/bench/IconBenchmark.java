@@ -0,0 +1,44 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import packer.PakWriter;
+
+/**
+ * Converting the 96x72 banner icon to RGB5A3 for the pak header
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class IconBenchmark {
+	@Param({ "ABGR", "BGR", "INT_ARGB" })
+	public SyntheticImages.Type	type;
+
+	private BufferedImage		icon;
+
+	@Setup
+	public void setup() {
+		icon = SyntheticImages.create(96, 72, type);
+	}
+
+	@Benchmark
+	public byte[] convert() {
+		return PakWriter.convertPakIconToRGB5A3(icon);
+	}
+}
@@ -0,0 +1,58 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import packer.LookupTable;
+
+/**
+ * Filling and sorting the lookup table, what PakWriter does for every entry
+ * and then in finalizePak()
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LookupTableBenchmark {
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int		entries;
+
+	private long[]	keys;
+	private long[]	offsets;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(entries);
+		keys = new long[entries];
+		offsets = new long[entries];
+		for (int i = 0; i < entries; i++) {
+			// Texture CRCs are random, the format/size byte isn't
+			keys[i] = random.nextLong() & ~0xFFL | (random.nextInt(4) << 4 | 2);
+			offsets[i] = i * 4096L;
+		}
+	}
+
+	@Benchmark
+	public LookupTable addAndSort() {
+		LookupTable table = new LookupTable();
+		for (int i = 0; i < entries; i++) {
+			table.add(keys[i], offsets[i]);
+		}
+		table.sort();
+		return table;
+	}
+}
@@ -0,0 +1,74 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gx.ColorQuantizer;
+import gx.Downsampler;
+import gx.PixelSource;
+import gx.TextureAnalysis;
+
+/**
+ * Everything done with a decoded texture besides tiling it: wrapping the
+ * raster (converting types ImageIO doesn't decode to directly), the format
+ * analysis, palette quantization and mipmap halving
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SourceBenchmark {
+	@Param({ "64", "256", "1024", "4096" })
+	public int						size;
+
+	@Param({ "ABGR", "BGR", "INT_ARGB", "GREY_ALPHA" })
+	public SyntheticImages.Type		type;
+
+	private BufferedImage			image;
+	private PixelSource				src;
+
+	@Setup
+	public void setup() {
+		image = SyntheticImages.create(size, size, type);
+		src = PixelSource.wrap(image, null, false);
+	}
+
+	@Benchmark
+	public PixelSource wrap() {
+		return PixelSource.wrap(image, null, false);
+	}
+
+	@Benchmark
+	public TextureAnalysis analyse() {
+		return TextureAnalysis.of(src);
+	}
+
+	@Benchmark
+	public Object quantize() {
+		return new ColorQuantizer(src).quantize(256);
+	}
+
+	@Benchmark
+	public PixelSource halveBox() {
+		return Downsampler.half(src, Downsampler.Filter.BOX);
+	}
+
+	@Benchmark
+	public PixelSource halveLanczos() {
+		return Downsampler.half(src, Downsampler.Filter.LANCZOS);
+	}
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Generates the textures the benchmarks work on, so they run without a
+ * texture pack. The same size and type always give the same pixels: smooth
+ * gradients with a little noise and some flat and transparent areas, roughly
+ * what hi-res texture packs contain.
+ */
+public class SyntheticImages {
+
+	/** Image types the benchmarks are parameterised with */
+	public enum Type {
+		/** 32 bit RGBA PNG as ImageIO decodes it */
+		ABGR(BufferedImage.TYPE_4BYTE_ABGR, true),
+		/** 24 bit RGB PNG as ImageIO decodes it */
+		BGR(BufferedImage.TYPE_3BYTE_BGR, false),
+		/** Anything else, converted before encoding */
+		INT_ARGB(BufferedImage.TYPE_INT_ARGB, true),
+		/** Greyscale with alpha, what the I/IA formats are picked for */
+		GREY_ALPHA(BufferedImage.TYPE_4BYTE_ABGR, true);
+
+		private int		imageType;
+		private boolean	alpha;
+
+		private Type(int imageType, boolean alpha) {
+			this.imageType = imageType;
+			this.alpha = alpha;
+		}
+	}
+
+	private SyntheticImages() {
+	}
+
+	public static BufferedImage create(int width, int height, Type type) {
+		BufferedImage image = new BufferedImage(width, height, type.imageType);
+		Random random = new Random(width * 31 + height);
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = x * 255 / Math.max(width - 1, 1);
+				int g = y * 255 / Math.max(height - 1, 1);
+				int b = (r + g) / 2;
+				// Every fourth 16x16 block is flat
+				if (((x >> 4) + (y >> 4)) % 4 != 0) {
+					r = clamp(r + random.nextInt(17) - 8);
+					g = clamp(g + random.nextInt(17) - 8);
+					b = clamp(b + random.nextInt(17) - 8);
+				}
+				int a = 0xFF;
+				if (type.alpha) {
+					// A transparent border and a soft edge inside it
+					int edge = Math.min(Math.min(x, width - 1 - x), Math.min(y, height - 1 - y));
+					a = edge < width / 16 ? 0 : clamp((edge - width / 16) * 32);
+				}
+				if (type == Type.GREY_ALPHA) {
+					r = g = b;
+				}
+				row[x] = a << 24 | r << 16 | g << 8 | b;
+			}
+			image.setRGB(0, y, width, 1, row, 0, width);
+		}
+		return image;
+	}
+
+	private static int clamp(int value) {
+		return value < 0 ? 0 : value > 255 ? 255 : value;
+	}
+}
@@ -0,0 +1,262 @@
+package gx;
+
+/**
+ * Encodes GX CMPR textures: 8x8 tiles made of 2x2 S3TC/DXT1 blocks (top
+ * left, top right, bottom left, bottom right), each block big endian RGB565
+ * endpoints followed by one byte of 2 bit indices per row, leftmost pixel in
+ * the top bits.
+ *
+ * Blocks without transparent pixels use 4 colour mode, blocks with any (alpha
+ * below 0x80) use 3 colour mode with index 3 transparent, so this suits
+ * opaque textures and textures with 1 bit alpha. Endpoints come from the
+ * bounding box of the block's colours and are refined with one least squares
+ * pass. The in-between colours are blended 5:3 like the GX hardware does.
+ */
+public class CMPREncoder {
+	// How much of the second endpoint each index is, by mode
+	private static final double[]	WEIGHTS_3	= { 0, 1, 0.5, 0 };
+	private static final double[]	WEIGHTS_4	= { 0, 1, 3 / 8.0, 5 / 8.0 };
+
+	// Pixels of the block being encoded
+	private int[]		r			= new int[16];
+	private int[]		g			= new int[16];
+	private int[]		b			= new int[16];
+	private boolean[]	opaque		= new boolean[16];
+	private int[]		indices		= new int[16];
+	private int[]		bestIndices	= new int[16];
+	// Decoded palette of the endpoints being tried
+	private int[]		pr			= new int[4];
+	private int[]		pg			= new int[4];
+	private int[]		pb			= new int[4];
+
+	private CMPREncoder() {
+	}
+
+	/**
+	 * @return The size of a GX CMPR texture, partial 8x8 tiles are padded
+	 */
+	public static int getCMPRSize(int width, int height) {
+		return ((width + 7) / 8) * ((height + 7) / 8) * 32;
+	}
+
+	/**
+	 * @param out
+	 *            Buffer to write to, a new one is allocated if it is null or
+	 *            too small
+	 * @return The buffer holding the texture, {@link #getCMPRSize(int, int)}
+	 *         bytes are used
+	 */
+	public static byte[] encode(PixelSource src, byte[] out) {
+		int w = src.getWidth(), h = src.getHeight();
+		int size = getCMPRSize(w, h);
+		if (out == null || out.length < size) {
+			out = new byte[size];
+		}
+		CMPREncoder encoder = new CMPREncoder();
+		int o = 0;
+		for (int i = 0; i < h; i += 8) {
+			for (int j = 0; j < w; j += 8) {
+				for (int sub = 0; sub < 4; sub++, o += 8) {
+					encoder.readBlock(src, j + (sub & 1) * 4, i + (sub >> 1) * 4);
+					encoder.encodeBlock(out, o);
+				}
+			}
+		}
+		return out;
+	}
+
+	/** Reads a 4x4 block, pixels past the edges repeat the last row/column */
+	private void readBlock(PixelSource src, int x, int y) {
+		byte[] data = src.getData();
+		byte[] alpha = src.getAlphaData();
+		int ro = src.getRedOffset(), go = src.getGreenOffset(), bo = src.getBlueOffset();
+		for (int ii = 0; ii < 4; ii++) {
+			int py = Math.min(y + ii, src.getHeight() - 1);
+			for (int jj = 0; jj < 4; jj++) {
+				int px = Math.min(x + jj, src.getWidth() - 1);
+				int p = src.indexOf(px, py);
+				int k = ii * 4 + jj;
+				r[k] = data[p + ro] & 0xFF;
+				g[k] = data[p + go] & 0xFF;
+				b[k] = data[p + bo] & 0xFF;
+				opaque[k] = alpha == null || (alpha[src.alphaIndexOf(px, py)] & 0xFF) >= 0x80;
+			}
+		}
+	}
+
+	private void encodeBlock(byte[] out, int o) {
+		int n = 0, sumR = 0, sumG = 0, sumB = 0;
+		int minR = 255, minG = 255, minB = 255, maxR = 0, maxG = 0, maxB = 0;
+		for (int k = 0; k < 16; k++) {
+			if (opaque[k]) {
+				n++;
+				sumR += r[k];
+				sumG += g[k];
+				sumB += b[k];
+				minR = Math.min(minR, r[k]);
+				minG = Math.min(minG, g[k]);
+				minB = Math.min(minB, b[k]);
+				maxR = Math.max(maxR, r[k]);
+				maxG = Math.max(maxG, g[k]);
+				maxB = Math.max(maxB, b[k]);
+			}
+		}
+		if (n == 0) {
+			// Fully transparent, 3 colour mode with every index transparent
+			out[o] = out[o + 1] = out[o + 2] = out[o + 3] = 0;
+			out[o + 4] = out[o + 5] = out[o + 6] = out[o + 7] = (byte) 0xFF;
+			return;
+		}
+		boolean threeColour = n < 16;
+
+		// Pick the bounding box diagonal the colours lie along, relative to
+		// green, then pull the endpoints in a little
+		int covRG = 0, covBG = 0;
+		for (int k = 0; k < 16; k++) {
+			if (opaque[k]) {
+				int dg = g[k] * n - sumG;
+				covRG += (r[k] * n - sumR) * dg;
+				covBG += (b[k] * n - sumB) * dg;
+			}
+		}
+		int insetR = (maxR - minR) >> 4, insetG = (maxG - minG) >> 4, insetB = (maxB - minB) >> 4;
+		int r0 = maxR - insetR, g0 = maxG - insetG, b0 = maxB - insetB;
+		int r1 = minR + insetR, g1 = minG + insetG, b1 = minB + insetB;
+		if (covRG < 0) {
+			int t = r0;
+			r0 = r1;
+			r1 = t;
+		}
+		if (covBG < 0) {
+			int t = b0;
+			b0 = b1;
+			b1 = t;
+		}
+		int c0 = GXColor.toRGB565(r0, g0, b0), c1 = GXColor.toRGB565(r1, g1, b1);
+		long bestError = assignIndices(c0, c1, threeColour);
+		int best0 = c0, best1 = c1;
+		System.arraycopy(indices, 0, bestIndices, 0, 16);
+
+		// One least squares pass on the endpoints for the chosen indices
+		double[] weights = threeColour ? WEIGHTS_3 : WEIGHTS_4;
+		double aa = 0, bb = 0, ab = 0;
+		double ar = 0, ag = 0, abl = 0, br = 0, bg = 0, bbl = 0;
+		for (int k = 0; k < 16; k++) {
+			if (opaque[k]) {
+				double t = weights[indices[k]], s = 1 - t;
+				aa += s * s;
+				bb += t * t;
+				ab += s * t;
+				ar += s * r[k];
+				ag += s * g[k];
+				abl += s * b[k];
+				br += t * r[k];
+				bg += t * g[k];
+				bbl += t * b[k];
+			}
+		}
+		double det = aa * bb - ab * ab;
+		if (Math.abs(det) > 1e-6) {
+			c0 = GXColor.toRGB565(clamp((ar * bb - br * ab) / det), clamp((ag * bb - bg * ab) / det),
+					clamp((abl * bb - bbl * ab) / det));
+			c1 = GXColor.toRGB565(clamp((br * aa - ar * ab) / det), clamp((bg * aa - ag * ab) / det),
+					clamp((bbl * aa - abl * ab) / det));
+			long error = assignIndices(c0, c1, threeColour);
+			if (error < bestError) {
+				best0 = c0;
+				best1 = c1;
+				System.arraycopy(indices, 0, bestIndices, 0, 16);
+			}
+		}
+
+		// The order of the endpoints selects the mode
+		if (threeColour ? best0 > best1 : best0 < best1) {
+			int t = best0;
+			best0 = best1;
+			best1 = t;
+			for (int k = 0; k < 16; k++) {
+				switch (bestIndices[k]) {
+				case 0:
+					bestIndices[k] = 1;
+					break;
+				case 1:
+					bestIndices[k] = 0;
+					break;
+				case 2:
+					bestIndices[k] = threeColour ? 2 : 3;
+					break;
+				case 3:
+					bestIndices[k] = threeColour ? 3 : 2;
+					break;
+				}
+			}
+		} else if (!threeColour && best0 == best1) {
+			// Equal endpoints mean 3 colour mode, stay clear of index 3
+			for (int k = 0; k < 16; k++) {
+				bestIndices[k] = 0;
+			}
+		}
+
+		out[o] = (byte) (best0 >> 8);
+		out[o + 1] = (byte) best0;
+		out[o + 2] = (byte) (best1 >> 8);
+		out[o + 3] = (byte) best1;
+		for (int ii = 0; ii < 4; ii++) {
+			out[o + 4 + ii] = (byte) ((bestIndices[ii * 4] << 6) | (bestIndices[ii * 4 + 1] << 4)
+					| (bestIndices[ii * 4 + 2] << 2) | bestIndices[ii * 4 + 3]);
+		}
+	}
+
+	/**
+	 * Picks the closest palette colour for every pixel, transparent pixels
+	 * get index 3
+	 *
+	 * @return The summed squared error
+	 */
+	private long assignIndices(int c0, int c1, boolean threeColour) {
+		pr[0] = GXColor.expand5(c0 >> 11);
+		pg[0] = GXColor.expand6((c0 >> 5) & 0x3F);
+		pb[0] = GXColor.expand5(c0 & 0x1F);
+		pr[1] = GXColor.expand5(c1 >> 11);
+		pg[1] = GXColor.expand6((c1 >> 5) & 0x3F);
+		pb[1] = GXColor.expand5(c1 & 0x1F);
+		int colours;
+		if (threeColour) {
+			pr[2] = (pr[0] + pr[1]) >> 1;
+			pg[2] = (pg[0] + pg[1]) >> 1;
+			pb[2] = (pb[0] + pb[1]) >> 1;
+			colours = 3;
+		} else {
+			pr[2] = (pr[0] * 5 + pr[1] * 3) >> 3;
+			pg[2] = (pg[0] * 5 + pg[1] * 3) >> 3;
+			pb[2] = (pb[0] * 5 + pb[1] * 3) >> 3;
+			pr[3] = (pr[0] * 3 + pr[1] * 5) >> 3;
+			pg[3] = (pg[0] * 3 + pg[1] * 5) >> 3;
+			pb[3] = (pb[0] * 3 + pb[1] * 5) >> 3;
+			colours = 4;
+		}
+		long total = 0;
+		for (int k = 0; k < 16; k++) {
+			if (!opaque[k]) {
+				indices[k] = 3;
+				continue;
+			}
+			int best = 0, bestError = Integer.MAX_VALUE;
+			for (int c = 0; c < colours; c++) {
+				int dr = r[k] - pr[c], dg = g[k] - pg[c], db = b[k] - pb[c];
+				int error = dr * dr + dg * dg + db * db;
+				if (error < bestError) {
+					bestError = error;
+					best = c;
+				}
+			}
+			indices[k] = best;
+			total += bestError;
+		}
+		return total;
+	}
+
+	private static int clamp(double value) {
+		return value < 0 ? 0 : value > 255 ? 255 : (int) (value + 0.5);
+	}
+}
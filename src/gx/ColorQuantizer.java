@@ -0,0 +1,279 @@
+package gx;
+
+import java.util.Arrays;
+
+/**
+ * Reduces a texture to a palette for the GX CI formats. The distinct colours
+ * are counted once, textures with few enough of them get an exact palette,
+ * the rest are split up by median cut (always splitting the box with the
+ * largest squared range times pixel count, at the weighted median of its
+ * widest channel).
+ *
+ * The TLUT is IA8 for grey palettes, RGB565 for opaque ones and RGB5A3
+ * otherwise. The error reported includes the TLUT's reduced bit depth.
+ */
+public class ColorQuantizer {
+	/**
+	 * Most bytes a quantizer holds per pixel, when every pixel has a colour
+	 * of its own: the distinct colour table and the colours and counts while
+	 * they grow (up to 70 bytes a colour while rehashing), or the median
+	 * cut's order and sort keys plus the palette indices later on
+	 */
+	public static final int	MAX_BYTES_PER_PIXEL	= 72;
+
+	private PixelSource	src;
+	// Open addressed table of the distinct colours (ARGB)
+	private int[]		slotColours;
+	private int[]		slotIndex;
+	private boolean[]	slotUsed;
+	private int			mask;
+	// The distinct colours and how many pixels have each
+	private int[]		colours;
+	private int[]		counts;
+
+	public ColorQuantizer(PixelSource src) {
+		this.src = src;
+		int capacity = 1024;
+		slotColours = new int[capacity];
+		slotIndex = new int[capacity];
+		slotUsed = new boolean[capacity];
+		mask = capacity - 1;
+		colours = new int[256];
+		counts = new int[256];
+		int numColours = 0;
+
+		for (int y = 0; y < src.getHeight(); y++) {
+			for (int x = 0; x < src.getWidth(); x++) {
+				int colour = getColour(x, y);
+				int slot = find(colour);
+				if (slotUsed[slot]) {
+					counts[slotIndex[slot]]++;
+					continue;
+				}
+				if (numColours == colours.length) {
+					colours = Arrays.copyOf(colours, numColours * 2);
+					counts = Arrays.copyOf(counts, numColours * 2);
+				}
+				slotUsed[slot] = true;
+				slotColours[slot] = colour;
+				slotIndex[slot] = numColours;
+				colours[numColours] = colour;
+				counts[numColours] = 1;
+				numColours++;
+				if (numColours * 2 > slotColours.length) {
+					rehash(numColours);
+				}
+			}
+		}
+		colours = Arrays.copyOf(colours, numColours);
+		counts = Arrays.copyOf(counts, numColours);
+	}
+
+	/** @return The number of distinct colours (alpha included) */
+	public int getNumColours() {
+		return colours.length;
+	}
+
+	/**
+	 * @param maxColours
+	 *            Palette size, 16 for CI4 or 256 for CI8
+	 */
+	public Palette quantize(int maxColours) {
+		int n = colours.length;
+		int[] paletteOf = new int[n];
+		int[] palette;
+		if (n <= maxColours) {
+			palette = colours.clone();
+			for (int i = 0; i < n; i++) {
+				paletteOf[i] = i;
+			}
+		} else {
+			palette = medianCut(maxColours, paletteOf);
+		}
+
+		// Pick the TLUT format and see what the entries read back as
+		boolean grey = true, opaque = true;
+		for (int colour : palette) {
+			int r = (colour >> 16) & 0xFF, g = (colour >> 8) & 0xFF, b = colour & 0xFF;
+			grey &= r == g && g == b;
+			opaque &= (colour >>> 24) == 0xFF;
+		}
+		int tlutFormat = grey ? GXFormat.TL_IA8 : opaque ? GXFormat.TL_RGB565 : GXFormat.TL_RGB5A3;
+		int[] tlut = new int[palette.length];
+		int[] readBack = new int[palette.length];
+		for (int i = 0; i < palette.length; i++) {
+			int a = palette[i] >>> 24, r = (palette[i] >> 16) & 0xFF, g = (palette[i] >> 8) & 0xFF, b = palette[i] & 0xFF;
+			switch (tlutFormat) {
+			case GXFormat.TL_IA8:
+				tlut[i] = (a << 8) | r;
+				readBack[i] = palette[i];
+				break;
+			case GXFormat.TL_RGB565:
+				tlut[i] = GXColor.toRGB565(r, g, b);
+				readBack[i] = GXColor.fromRGB565(tlut[i]);
+				break;
+			default:
+				tlut[i] = GXColor.toRGB5A3(r, g, b, a);
+				readBack[i] = GXColor.fromRGB5A3(tlut[i]);
+				break;
+			}
+		}
+
+		int maxError = 0;
+		double squaredError = 0;
+		for (int i = 0; i < n; i++) {
+			int colour = colours[i], stored = readBack[paletteOf[i]];
+			for (int shift = 0; shift < 32; shift += 8) {
+				int error = Math.abs(((colour >>> shift) & 0xFF) - ((stored >>> shift) & 0xFF));
+				maxError = Math.max(maxError, error);
+				squaredError += (double) error * error * counts[i];
+			}
+		}
+		int w = src.getWidth(), h = src.getHeight();
+		double rmsError = Math.sqrt(squaredError / (4.0 * w * h));
+
+		byte[] indices = new byte[w * h];
+		for (int y = 0, p = 0; y < h; y++) {
+			for (int x = 0; x < w; x++, p++) {
+				indices[p] = (byte) paletteOf[slotIndex[find(getColour(x, y))]];
+			}
+		}
+		return new Palette(tlutFormat, tlut, indices, w, h, maxError, rmsError);
+	}
+
+	/**
+	 * @return The palette, paletteOf is filled with the palette entry of
+	 *         every distinct colour
+	 */
+	private int[] medianCut(int maxColours, int[] paletteOf) {
+		int n = colours.length;
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		int[] boxStart = new int[maxColours], boxEnd = new int[maxColours], boxShift = new int[maxColours];
+		double[] boxScore = new double[maxColours];
+		int numBoxes = 1;
+		boxStart[0] = 0;
+		boxEnd[0] = n;
+		scoreBox(order, 0, boxStart, boxEnd, boxShift, boxScore);
+		long[] keys = new long[n];
+
+		while (numBoxes < maxColours) {
+			// Find the box that is worst off
+			int worst = -1;
+			for (int box = 0; box < numBoxes; box++) {
+				if (boxScore[box] > 0 && (worst < 0 || boxScore[box] > boxScore[worst])) {
+					worst = box;
+				}
+			}
+			if (worst < 0) {
+				break;
+			}
+			int worstShift = boxShift[worst];
+
+			// Sort it along its widest channel and split at the weighted median
+			int start = boxStart[worst], end = boxEnd[worst];
+			long total = 0;
+			for (int j = start; j < end; j++) {
+				keys[j] = ((long) ((colours[order[j]] >>> worstShift) & 0xFF) << 32) | order[j];
+			}
+			Arrays.sort(keys, start, end);
+			for (int j = start; j < end; j++) {
+				order[j] = (int) keys[j];
+				total += counts[order[j]];
+			}
+			long half = 0;
+			int split = start + 1;
+			for (int j = start; j < end - 1; j++) {
+				half += counts[order[j]];
+				split = j + 1;
+				if (half * 2 >= total) {
+					break;
+				}
+			}
+			boxStart[numBoxes] = split;
+			boxEnd[numBoxes] = end;
+			boxEnd[worst] = split;
+			scoreBox(order, worst, boxStart, boxEnd, boxShift, boxScore);
+			scoreBox(order, numBoxes, boxStart, boxEnd, boxShift, boxScore);
+			numBoxes++;
+		}
+
+		// Every box becomes the weighted mean of its colours
+		int[] palette = new int[numBoxes];
+		for (int box = 0; box < numBoxes; box++) {
+			long a = 0, r = 0, g = 0, b = 0, pixels = 0;
+			for (int j = boxStart[box]; j < boxEnd[box]; j++) {
+				int colour = colours[order[j]], count = counts[order[j]];
+				a += (long) (colour >>> 24) * count;
+				r += (long) ((colour >> 16) & 0xFF) * count;
+				g += (long) ((colour >> 8) & 0xFF) * count;
+				b += (long) (colour & 0xFF) * count;
+				pixels += count;
+				paletteOf[order[j]] = box;
+			}
+			palette[box] = (int) ((a + pixels / 2) / pixels) << 24 | (int) ((r + pixels / 2) / pixels) << 16
+					| (int) ((g + pixels / 2) / pixels) << 8 | (int) ((b + pixels / 2) / pixels);
+		}
+		return palette;
+	}
+
+	/**
+	 * Finds the widest channel of a box, the box's score is its squared range
+	 * times its pixel count (0 if it can't be split)
+	 */
+	private void scoreBox(int[] order, int box, int[] boxStart, int[] boxEnd, int[] boxShift, double[] boxScore) {
+		int bestRange = 0, bestShift = 0;
+		long pixels = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			int min = 0xFF, max = 0;
+			for (int j = boxStart[box]; j < boxEnd[box]; j++) {
+				int v = (colours[order[j]] >>> shift) & 0xFF;
+				min = Math.min(min, v);
+				max = Math.max(max, v);
+			}
+			if (max - min > bestRange) {
+				bestRange = max - min;
+				bestShift = shift;
+			}
+		}
+		for (int j = boxStart[box]; j < boxEnd[box]; j++) {
+			pixels += counts[order[j]];
+		}
+		boxShift[box] = bestShift;
+		boxScore[box] = (double) bestRange * bestRange * pixels;
+	}
+
+	private int getColour(int x, int y) {
+		byte[] data = src.getData();
+		int p = src.indexOf(x, y);
+		int a = src.getAlphaData() != null ? src.getAlphaData()[src.alphaIndexOf(x, y)] & 0xFF : 0xFF;
+		return a << 24 | (data[p + src.getRedOffset()] & 0xFF) << 16 | (data[p + src.getGreenOffset()] & 0xFF) << 8
+				| (data[p + src.getBlueOffset()] & 0xFF);
+	}
+
+	/** @return The slot holding the colour, or the free slot it belongs in */
+	private int find(int colour) {
+		int hash = colour * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (slotUsed[slot] && slotColours[slot] != colour) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void rehash(int numColours) {
+		int capacity = slotColours.length * 2;
+		slotColours = new int[capacity];
+		slotIndex = new int[capacity];
+		slotUsed = new boolean[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < numColours; i++) {
+			int slot = find(colours[i]);
+			slotUsed[slot] = true;
+			slotColours[slot] = colours[i];
+			slotIndex[slot] = i;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package gx;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+/**
+ * Halves textures for mipmap levels, with a box or a Lanczos (a = 3) filter.
+ * Colours are weighted by their alpha so transparent pixels don't bleed into
+ * their neighbours. Levels come out as TYPE_4BYTE_ABGR images, ready for
+ * {@link PixelSource#wrap(BufferedImage, BufferedImage, boolean)}.
+ */
+public class Downsampler {
+
+	public enum Filter {
+		BOX, LANCZOS
+	}
+
+	// Lanczos taps for halving, source pixels 2x - 5 to 2x + 6
+	private static final int		TAPS	= 12;
+	private static final float[]	WEIGHTS	= new float[TAPS];
+
+	static {
+		float sum = 0;
+		for (int k = 0; k < TAPS; k++) {
+			// Distance from the destination pixel's centre, in its pixels
+			double t = (k - 5 - 0.5) / 2;
+			WEIGHTS[k] = (float) (sinc(t) * sinc(t / 3));
+			sum += WEIGHTS[k];
+		}
+		for (int k = 0; k < TAPS; k++) {
+			WEIGHTS[k] /= sum;
+		}
+	}
+
+	private Downsampler() {
+	}
+
+	private static double sinc(double x) {
+		if (x == 0) {
+			return 1;
+		}
+		return Math.sin(Math.PI * x) / (Math.PI * x);
+	}
+
+	/**
+	 * @return The texture at half its width and height (rounded down, at
+	 *         least 1)
+	 */
+	public static PixelSource half(PixelSource src, Filter filter) {
+		int w = Math.max(src.getWidth() / 2, 1), h = Math.max(src.getHeight() / 2, 1);
+		BufferedImage level = new BufferedImage(w, h, BufferedImage.TYPE_4BYTE_ABGR);
+		byte[] out = ((DataBufferByte) level.getRaster().getDataBuffer()).getData();
+		if (filter == Filter.LANCZOS) {
+			lanczos(src, w, h, out);
+		} else {
+			box(src, w, h, out);
+		}
+		return PixelSource.wrap(level, null, false);
+	}
+
+	private static void box(PixelSource src, int w, int h, byte[] out) {
+		byte[] data = src.getData();
+		byte[] alpha = src.getAlphaData();
+		int ro = src.getRedOffset(), go = src.getGreenOffset(), bo = src.getBlueOffset();
+		int o = 0;
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				int sa = 0, sr = 0, sg = 0, sb = 0, pr = 0, pg = 0, pb = 0;
+				for (int k = 0; k < 4; k++) {
+					int sx = Math.min(2 * x + (k & 1), src.getWidth() - 1);
+					int sy = Math.min(2 * y + (k >> 1), src.getHeight() - 1);
+					int p = src.indexOf(sx, sy);
+					int a = alpha != null ? alpha[src.alphaIndexOf(sx, sy)] & 0xFF : 0xFF;
+					int r = data[p + ro] & 0xFF, g = data[p + go] & 0xFF, b = data[p + bo] & 0xFF;
+					sa += a;
+					sr += r;
+					sg += g;
+					sb += b;
+					pr += r * a;
+					pg += g * a;
+					pb += b * a;
+				}
+				out[o++] = (byte) ((sa + 2) / 4);
+				if (sa > 0) {
+					out[o++] = (byte) ((pb + sa / 2) / sa);
+					out[o++] = (byte) ((pg + sa / 2) / sa);
+					out[o++] = (byte) ((pr + sa / 2) / sa);
+				} else {
+					out[o++] = (byte) ((sb + 2) / 4);
+					out[o++] = (byte) ((sg + 2) / 4);
+					out[o++] = (byte) ((sr + 2) / 4);
+				}
+			}
+		}
+	}
+
+	/** Separable, horizontal into a premultiplied float buffer first */
+	private static void lanczos(PixelSource src, int w, int h, byte[] out) {
+		byte[] data = src.getData();
+		byte[] alpha = src.getAlphaData();
+		int ro = src.getRedOffset(), go = src.getGreenOffset(), bo = src.getBlueOffset();
+		int sw = src.getWidth(), sh = src.getHeight();
+		float[] tmp = new float[w * sh * 4];
+		int t = 0;
+		for (int y = 0; y < sh; y++) {
+			for (int x = 0; x < w; x++) {
+				float a = 0, r = 0, g = 0, b = 0;
+				for (int k = 0; k < TAPS; k++) {
+					int sx = Math.min(Math.max(2 * x - 5 + k, 0), sw - 1);
+					int p = src.indexOf(sx, y);
+					float weight = WEIGHTS[k];
+					float wa = weight * (alpha != null ? alpha[src.alphaIndexOf(sx, y)] & 0xFF : 0xFF);
+					a += wa;
+					r += wa * (data[p + ro] & 0xFF);
+					g += wa * (data[p + go] & 0xFF);
+					b += wa * (data[p + bo] & 0xFF);
+				}
+				tmp[t++] = a;
+				tmp[t++] = r;
+				tmp[t++] = g;
+				tmp[t++] = b;
+			}
+		}
+		int o = 0;
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				float a = 0, r = 0, g = 0, b = 0;
+				for (int k = 0; k < TAPS; k++) {
+					int sy = Math.min(Math.max(2 * y - 5 + k, 0), sh - 1);
+					int p = (sy * w + x) * 4;
+					float weight = WEIGHTS[k];
+					a += weight * tmp[p];
+					r += weight * tmp[p + 1];
+					g += weight * tmp[p + 2];
+					b += weight * tmp[p + 3];
+				}
+				out[o++] = (byte) clamp(a);
+				if (a > 0.5f) {
+					out[o++] = (byte) clamp(b / a);
+					out[o++] = (byte) clamp(g / a);
+					out[o++] = (byte) clamp(r / a);
+				} else {
+					out[o++] = 0;
+					out[o++] = 0;
+					out[o++] = 0;
+				}
+			}
+		}
+	}
+
+	private static int clamp(float value) {
+		return value < 0 ? 0 : value > 255 ? 255 : (int) (value + 0.5f);
+	}
+}
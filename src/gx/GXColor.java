@@ -0,0 +1,87 @@
+package gx;
+
+/**
+ * Reduces 8 bit channels to the bit depths of the GX formats and expands them
+ * back the way the GX hardware does. The analysis and the encoders both use
+ * these, so the error the analysis reports is the error the encoders make.
+ */
+public class GXColor {
+
+	private GXColor() {
+	}
+
+	public static int quantize3(int v) {
+		return (v * 7 + 127) / 255;
+	}
+
+	public static int expand3(int q) {
+		return (q << 5) | (q << 2) | (q >> 1);
+	}
+
+	public static int quantize4(int v) {
+		return (v * 15 + 127) / 255;
+	}
+
+	public static int expand4(int q) {
+		return q * 0x11;
+	}
+
+	public static int quantize5(int v) {
+		return (v * 31 + 127) / 255;
+	}
+
+	public static int expand5(int q) {
+		return (q << 3) | (q >> 2);
+	}
+
+	public static int quantize6(int v) {
+		return (v * 63 + 127) / 255;
+	}
+
+	public static int expand6(int q) {
+		return (q << 2) | (q >> 4);
+	}
+
+	/**
+	 * @return The intensity the I/IA formats store for a colour, exact for
+	 *         grey
+	 */
+	public static int intensity(int r, int g, int b) {
+		if (r == g && g == b) {
+			return r;
+		}
+		return (r * 77 + g * 150 + b * 29 + 128) >> 8;
+	}
+
+	public static int toRGB565(int r, int g, int b) {
+		return (quantize5(r) << 11) | (quantize6(g) << 5) | quantize5(b);
+	}
+
+	/** @return The colour as ARGB */
+	public static int fromRGB565(int rgb565) {
+		return 0xFF000000 | expand5((rgb565 >> 11) & 0x1F) << 16 | expand6((rgb565 >> 5) & 0x3F) << 8
+				| expand5(rgb565 & 0x1F);
+	}
+
+	/** @return The colour as ARGB */
+	public static int fromRGB5A3(int rgb5a3) {
+		if ((rgb5a3 & 0x8000) != 0) {
+			return 0xFF000000 | expand5((rgb5a3 >> 10) & 0x1F) << 16 | expand5((rgb5a3 >> 5) & 0x1F) << 8
+					| expand5(rgb5a3 & 0x1F);
+		}
+		return expand3((rgb5a3 >> 12) & 0x7) << 24 | expand4((rgb5a3 >> 8) & 0xF) << 16 | expand4((rgb5a3 >> 4) & 0xF) << 8
+				| expand4(rgb5a3 & 0xF);
+	}
+
+	/**
+	 * @return RGB555 with the top bit set when alpha rounds to opaque, else
+	 *         3 bit alpha and RGB444
+	 */
+	public static int toRGB5A3(int r, int g, int b, int a) {
+		int a3 = quantize3(a);
+		if (a3 == 7) {
+			return 0x8000 | (quantize5(r) << 10) | (quantize5(g) << 5) | quantize5(b);
+		}
+		return (a3 << 12) | (quantize4(r) << 8) | (quantize4(g) << 4) | quantize4(b);
+	}
+}
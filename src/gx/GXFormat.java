@@ -0,0 +1,101 @@
+package gx;
+
+/**
+ * GX texture formats (GX_TF_*) as stored in the low 4 bits of an entry's
+ * gx_fmt byte
+ */
+public class GXFormat {
+	public static final int	I4		= 0x0;
+	public static final int	I8		= 0x1;
+	public static final int	IA4		= 0x2;
+	public static final int	IA8		= 0x3;
+	public static final int	RGB565	= 0x4;
+	public static final int	RGB5A3	= 0x5;
+	public static final int	RGBA8	= 0x6;
+	public static final int	CI4		= 0x8;
+	public static final int	CI8		= 0x9;
+	public static final int	CI14X2	= 0xA;
+	public static final int	CMPR	= 0xE;
+
+	// TLUT formats (GX_TL_*) of the CI formats
+	public static final int	TL_IA8		= 0x0;
+	public static final int	TL_RGB565	= 0x1;
+	public static final int	TL_RGB5A3	= 0x2;
+
+	private GXFormat() {
+	}
+
+	public static int getBitsPerPixel(int format) {
+		switch (format) {
+		case I4:
+		case CI4:
+		case CMPR:
+			return 4;
+		case I8:
+		case IA4:
+		case CI8:
+			return 8;
+		case RGBA8:
+			return 32;
+		}
+		return 16;
+	}
+
+	/** @return Width of a tile in pixels */
+	public static int getTileWidth(int format) {
+		switch (format) {
+		case I4:
+		case I8:
+		case IA4:
+		case CI4:
+		case CI8:
+		case CMPR:
+			return 8;
+		}
+		return 4;
+	}
+
+	/** @return Height of a tile in pixels */
+	public static int getTileHeight(int format) {
+		switch (format) {
+		case I4:
+		case CI4:
+		case CMPR:
+			return 8;
+		}
+		return 4;
+	}
+
+	/** @return true if the texture is made of whole tiles of the format */
+	public static boolean fitsTiles(int format, int width, int height) {
+		return width % getTileWidth(format) == 0 && height % getTileHeight(format) == 0;
+	}
+
+	public static String getName(int format) {
+		switch (format) {
+		case I4:
+			return "I4";
+		case I8:
+			return "I8";
+		case IA4:
+			return "IA4";
+		case IA8:
+			return "IA8";
+		case RGB565:
+			return "RGB565";
+		case RGB5A3:
+			return "RGB5A3";
+		case RGBA8:
+			return "RGBA8";
+		case CI4:
+			return "CI4";
+		case CI8:
+			return "CI8";
+		case CI14X2:
+			return "CI14X2";
+		case CMPR:
+			return "CMPR";
+		}
+		return "Unknown (" + format + ")";
+	}
+}
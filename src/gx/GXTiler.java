@@ -0,0 +1,226 @@
+package gx;
+
+/**
+ * Tiles pixels into the GX texture layouts, reading straight from a
+ * {@link PixelSource} and writing into a single output array. RGBA8 has its
+ * own loop, the other uncompressed formats share one.
+ */
+public class GXTiler {
+
+	private GXTiler() {
+	}
+
+	/**
+	 * @return The size of a GX RGBA8 texture, only whole 4x4 tiles are kept
+	 */
+	public static int getRGBA8Size(int width, int height) {
+		return (width - (width % 4)) * (height - (height % 4)) * 4;
+	}
+
+	/**
+	 * Converts pixels into a GX RGBA8 texture: 4x4 tiles of 32 bytes AR pairs
+	 * followed by 32 bytes GB pairs.
+	 *
+	 * @param out
+	 *            Buffer to write to, a new one is allocated if it is null or
+	 *            too small
+	 * @return The buffer holding the texture, {@link #getRGBA8Size(int, int)}
+	 *         bytes are used
+	 */
+	public static byte[] tileRGBA8(PixelSource src, byte[] out) {
+		int w = src.getWidth() - (src.getWidth() % 4);
+		int h = src.getHeight() - (src.getHeight() % 4);
+		int size = getRGBA8Size(w, h);
+		if (out == null || out.length < size) {
+			out = new byte[size];
+		}
+
+		byte[] data = src.getData();
+		int ps = src.getPixelStride();
+		int r = src.getRedOffset(), g = src.getGreenOffset(), b = src.getBlueOffset();
+		byte[] alpha = src.getAlphaData();
+		int aps = src.getAlphaPixelStride();
+		int o = 0;
+
+		for (int i = 0; i < h; i += 4) {
+			for (int j = 0; j < w; j += 4) {
+				for (int ii = 0; ii < 4; ii++) {
+					int p = src.indexOf(j, i + ii);
+					if (alpha != null) {
+						int a = src.alphaIndexOf(j, i + ii);
+						for (int jj = 0; jj < 4; jj++, p += ps, a += aps, o += 2) {
+							out[o] = alpha[a];
+							out[o + 1] = data[p + r];
+							out[o + 32] = data[p + g];
+							out[o + 33] = data[p + b];
+						}
+					} else {
+						for (int jj = 0; jj < 4; jj++, p += ps, o += 2) {
+							out[o] = (byte) 0xFF;
+							out[o + 1] = data[p + r];
+							out[o + 32] = data[p + g];
+							out[o + 33] = data[p + b];
+						}
+					}
+				}
+				o += 32;
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * @return The size of a CI4/CI8 texture with its TLUT, only whole tiles
+	 *         are kept
+	 */
+	public static int getCISize(int format, Palette palette) {
+		return 4 + palette.getTLUT().length * 2 + getSize(format, palette.getWidth(), palette.getHeight());
+	}
+
+	/**
+	 * Converts a palettized texture into CI4 or CI8, the TLUT goes first: u16
+	 * tlut_fmt, u16 number of entries, u16 entries[]. The tiled indices follow.
+	 *
+	 * @param out
+	 *            Buffer to write to, a new one is allocated if it is null or
+	 *            too small
+	 * @return The buffer holding the texture,
+	 *         {@link #getCISize(int, Palette)} bytes are used
+	 */
+	public static byte[] tileCI(Palette palette, int format, byte[] out) {
+		if (format != GXFormat.CI4 && format != GXFormat.CI8) {
+			throw new IllegalArgumentException("Not a CI format: " + GXFormat.getName(format));
+		}
+		int size = getCISize(format, palette);
+		if (out == null || out.length < size) {
+			out = new byte[size];
+		}
+		int[] tlut = palette.getTLUT();
+		int o = 0;
+		out[o++] = (byte) (palette.getTLUTFormat() >> 8);
+		out[o++] = (byte) palette.getTLUTFormat();
+		out[o++] = (byte) (tlut.length >> 8);
+		out[o++] = (byte) tlut.length;
+		for (int entry : tlut) {
+			out[o++] = (byte) (entry >> 8);
+			out[o++] = (byte) entry;
+		}
+
+		byte[] indices = palette.getIndices();
+		int tw = GXFormat.getTileWidth(format), th = GXFormat.getTileHeight(format);
+		int w = palette.getWidth() - (palette.getWidth() % tw);
+		int h = palette.getHeight() - (palette.getHeight() % th);
+		for (int i = 0; i < h; i += th) {
+			for (int j = 0; j < w; j += tw) {
+				for (int ii = 0; ii < th; ii++) {
+					int p = (i + ii) * palette.getWidth() + j;
+					if (format == GXFormat.CI4) {
+						for (int jj = 0; jj < tw; jj += 2, p += 2) {
+							out[o++] = (byte) ((indices[p] << 4) | (indices[p + 1] & 0xF));
+						}
+					} else {
+						System.arraycopy(indices, p, out, o, tw);
+						o += tw;
+					}
+				}
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * @return The size of a texture in one of the formats
+	 *         {@link #tile(PixelSource, int, byte[])} handles, only whole tiles
+	 *         are kept
+	 */
+	public static int getSize(int format, int width, int height) {
+		int tw = GXFormat.getTileWidth(format), th = GXFormat.getTileHeight(format);
+		return (width - (width % tw)) * (height - (height % th)) * GXFormat.getBitsPerPixel(format) / 8;
+	}
+
+	/**
+	 * Converts pixels into an I4, I8, IA4, IA8, RGB565, RGB5A3 or RGBA8
+	 * texture. Channels are reduced with {@link GXColor}, the I formats store
+	 * the intensity of the colour.
+	 *
+	 * @param out
+	 *            Buffer to write to, a new one is allocated if it is null or
+	 *            too small
+	 * @return The buffer holding the texture, {@link #getSize(int, int, int)}
+	 *         bytes are used
+	 */
+	public static byte[] tile(PixelSource src, int format, byte[] out) {
+		switch (format) {
+		case GXFormat.RGBA8:
+			return tileRGBA8(src, out);
+		case GXFormat.I4:
+		case GXFormat.I8:
+		case GXFormat.IA4:
+		case GXFormat.IA8:
+		case GXFormat.RGB565:
+		case GXFormat.RGB5A3:
+			break;
+		default:
+			throw new IllegalArgumentException("Can't tile " + GXFormat.getName(format));
+		}
+		int tw = GXFormat.getTileWidth(format), th = GXFormat.getTileHeight(format);
+		int w = src.getWidth() - (src.getWidth() % tw);
+		int h = src.getHeight() - (src.getHeight() % th);
+		int size = getSize(format, w, h);
+		if (out == null || out.length < size) {
+			out = new byte[size];
+		}
+
+		byte[] data = src.getData();
+		int ps = src.getPixelStride();
+		int r = src.getRedOffset(), g = src.getGreenOffset(), b = src.getBlueOffset();
+		byte[] alpha = src.getAlphaData();
+		int aps = src.getAlphaPixelStride();
+		int o = 0;
+
+		for (int i = 0; i < h; i += th) {
+			for (int j = 0; j < w; j += tw) {
+				for (int ii = 0; ii < th; ii++) {
+					int p = src.indexOf(j, i + ii);
+					int ap = alpha != null ? src.alphaIndexOf(j, i + ii) : 0;
+					for (int jj = 0; jj < tw; jj++, p += ps, ap += aps) {
+						int red = data[p + r] & 0xFF, green = data[p + g] & 0xFF, blue = data[p + b] & 0xFF;
+						int a = alpha != null ? alpha[ap] & 0xFF : 0xFF;
+						int in = format <= GXFormat.IA8 ? GXColor.intensity(red, green, blue) : 0;
+						switch (format) {
+						case GXFormat.I4:
+							int i4 = GXColor.quantize4(in);
+							if ((jj & 1) == 0) {
+								out[o] = (byte) (i4 << 4);
+							} else {
+								out[o++] |= i4;
+							}
+							break;
+						case GXFormat.I8:
+							out[o++] = (byte) in;
+							break;
+						case GXFormat.IA4:
+							out[o++] = (byte) ((GXColor.quantize4(a) << 4) | GXColor.quantize4(in));
+							break;
+						case GXFormat.IA8:
+							out[o++] = (byte) a;
+							out[o++] = (byte) in;
+							break;
+						case GXFormat.RGB565:
+							int rgb565 = GXColor.toRGB565(red, green, blue);
+							out[o++] = (byte) (rgb565 >> 8);
+							out[o++] = (byte) rgb565;
+							break;
+						case GXFormat.RGB5A3:
+							int rgb5a3 = GXColor.toRGB5A3(red, green, blue, a);
+							out[o++] = (byte) (rgb5a3 >> 8);
+							out[o++] = (byte) rgb5a3;
+							break;
+						}
+					}
+				}
+			}
+		}
+		return out;
+	}
+}
@@ -0,0 +1,60 @@
+package gx;
+
+/**
+ * A texture reduced to a palette by {@link ColorQuantizer}: the TLUT in GX
+ * form and the palette index of every pixel
+ */
+public class Palette {
+	private int		tlutFormat;
+	private int[]	tlut;
+	private byte[]	indices;
+	private int		width, height;
+	private int		maxError;
+	private double	rmsError;
+
+	Palette(int tlutFormat, int[] tlut, byte[] indices, int width, int height, int maxError, double rmsError) {
+		this.tlutFormat = tlutFormat;
+		this.tlut = tlut;
+		this.indices = indices;
+		this.width = width;
+		this.height = height;
+		this.maxError = maxError;
+		this.rmsError = rmsError;
+	}
+
+	/** @return One of the GXFormat.TL_* constants */
+	public int getTLUTFormat() {
+		return tlutFormat;
+	}
+
+	/** @return The TLUT entries as the 16 bit values stored in the pak */
+	public int[] getTLUT() {
+		return tlut;
+	}
+
+	/** @return Palette index of every pixel, row by row */
+	public byte[] getIndices() {
+		return indices;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return The largest difference of any channel of any pixel once read
+	 *         back through the TLUT
+	 */
+	public int getMaxError() {
+		return maxError;
+	}
+
+	/** @return Root mean square error over all channels of all pixels */
+	public double getRMSError() {
+		return rmsError;
+	}
+}
@@ -0,0 +1,217 @@
+package gx;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+
+/**
+ * A direct view of the bytes of a decoded image, so the GX encoders can read
+ * pixels straight out of the raster without getRGB() copies.
+ *
+ * Pixel (x, y) channel c is at data[offset + y * scanlineStride + x *
+ * pixelStride + c], with c one of the band offsets. Alpha comes from its own
+ * (possibly the same) array, or is 0xFF when there is none.
+ */
+public class PixelSource {
+	private int		width, height;
+	private byte[]	data;
+	private int		offset, pixelStride, scanlineStride;
+	private int		redOffset, greenOffset, blueOffset;
+	private byte[]	alphaData;
+	private int		alphaOffset, alphaPixelStride, alphaScanlineStride;
+
+	private PixelSource() {
+	}
+
+	/**
+	 * Wraps an image. TYPE_4BYTE_ABGR and TYPE_3BYTE_BGR images (what ImageIO
+	 * decodes 8 bit RGBA/RGB PNGs to) are used in place, any other type is
+	 * converted to TYPE_4BYTE_ABGR first.
+	 *
+	 * @param image
+	 *            The primary image
+	 * @param alphaImage
+	 *            Separate alpha image (blue channel is used), or null. Ignored
+	 *            if the primary image has alpha of its own.
+	 * @param replaceAlphaWithB
+	 *            Use the blue channel as alpha when there is no alpha image
+	 */
+	public static PixelSource wrap(BufferedImage image, BufferedImage alphaImage, boolean replaceAlphaWithB) {
+		PixelSource src = new PixelSource();
+		src.width = image.getWidth();
+		src.height = image.getHeight();
+		if (image.getType() != BufferedImage.TYPE_4BYTE_ABGR && image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+			image = toABGR(image, image.getColorModel().hasAlpha());
+		}
+		Raster raster = image.getRaster();
+		ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+		int[] bands = sm.getBandOffsets();
+		src.data = ((DataBufferByte) raster.getDataBuffer()).getData();
+		src.pixelStride = sm.getPixelStride();
+		src.scanlineStride = sm.getScanlineStride();
+		src.offset = getBaseOffset(raster);
+		src.redOffset = bands[0];
+		src.greenOffset = bands[1];
+		src.blueOffset = bands[2];
+
+		if (bands.length > 3) {
+			src.setAlpha(src.data, src.offset + bands[3], src.pixelStride, src.scanlineStride);
+		} else if (alphaImage != null) {
+			src.setAlpha(alphaImage);
+		} else if (replaceAlphaWithB) {
+			src.setAlpha(src.data, src.offset + src.blueOffset, src.pixelStride, src.scanlineStride);
+		}
+		return src;
+	}
+
+	/**
+	 * Wraps interleaved 8 bit pixels, such as decoded PNG scanlines
+	 *
+	 * @param alphaOffset
+	 *            Offset of alpha within a pixel, -1 if there is none
+	 */
+	public static PixelSource wrap(byte[] data, int width, int height, int pixelStride, int scanlineStride,
+			int redOffset, int greenOffset, int blueOffset, int alphaOffset) {
+		PixelSource src = new PixelSource();
+		src.width = width;
+		src.height = height;
+		src.data = data;
+		src.pixelStride = pixelStride;
+		src.scanlineStride = scanlineStride;
+		src.redOffset = redOffset;
+		src.greenOffset = greenOffset;
+		src.blueOffset = blueOffset;
+		if (alphaOffset >= 0) {
+			src.setAlpha(data, alphaOffset, pixelStride, scanlineStride);
+		}
+		return src;
+	}
+
+	/**
+	 * Takes alpha from the blue channel of another source of the same size,
+	 * the _a file
+	 */
+	public void setAlphaFrom(PixelSource alphaSource) {
+		setAlpha(alphaSource.data, alphaSource.offset + alphaSource.blueOffset, alphaSource.pixelStride,
+				alphaSource.scanlineStride);
+	}
+
+	/** Uses the blue channel as alpha */
+	public void setBlueAsAlpha() {
+		setAlpha(data, offset + blueOffset, pixelStride, scanlineStride);
+	}
+
+	private void setAlpha(byte[] alphaData, int alphaOffset, int alphaPixelStride, int alphaScanlineStride) {
+		this.alphaData = alphaData;
+		this.alphaOffset = alphaOffset;
+		this.alphaPixelStride = alphaPixelStride;
+		this.alphaScanlineStride = alphaScanlineStride;
+	}
+
+	/** Alpha is taken from the blue channel of a separate image */
+	private void setAlpha(BufferedImage alphaImage) {
+		if (alphaImage.getType() == BufferedImage.TYPE_4BYTE_ABGR || alphaImage.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+			Raster raster = alphaImage.getRaster();
+			ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+			setAlpha(((DataBufferByte) raster.getDataBuffer()).getData(), getBaseOffset(raster) + sm.getBandOffsets()[2],
+					sm.getPixelStride(), sm.getScanlineStride());
+		} else {
+			// Anything else goes through the colour model like getRGB() does
+			int w = alphaImage.getWidth();
+			byte[] alpha = new byte[w * alphaImage.getHeight()];
+			int[] row = new int[w];
+			for (int y = 0; y < alphaImage.getHeight(); y++) {
+				alphaImage.getRGB(0, y, w, 1, row, 0, w);
+				for (int x = 0; x < w; x++) {
+					alpha[y * w + x] = (byte) row[x];
+				}
+			}
+			setAlpha(alpha, 0, 1, w);
+		}
+	}
+
+	/** @return Index of the first byte of pixel (0, 0) in the raster's data */
+	private static int getBaseOffset(Raster raster) {
+		ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+		return raster.getDataBuffer().getOffset() - raster.getSampleModelTranslateY() * sm.getScanlineStride()
+				- raster.getSampleModelTranslateX() * sm.getPixelStride();
+	}
+
+	/**
+	 * Converts an image of any type to TYPE_4BYTE_ABGR one row at a time
+	 */
+	private static BufferedImage toABGR(BufferedImage image, boolean hasAlpha) {
+		int w = image.getWidth(), h = image.getHeight();
+		BufferedImage abgr = new BufferedImage(w, h, BufferedImage.TYPE_4BYTE_ABGR);
+		byte[] dst = ((DataBufferByte) abgr.getRaster().getDataBuffer()).getData();
+		int[] row = new int[w];
+		int p = 0;
+		for (int y = 0; y < h; y++) {
+			image.getRGB(0, y, w, 1, row, 0, w);
+			for (int x = 0; x < w; x++) {
+				int color = row[x];
+				dst[p++] = hasAlpha ? (byte) (color >> 24) : (byte) 0xFF;
+				dst[p++] = (byte) color;
+				dst[p++] = (byte) (color >> 8);
+				dst[p++] = (byte) (color >> 16);
+			}
+		}
+		return abgr;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return Index of pixel (x, y) in {@link #getData()}, add the channel
+	 *         offsets to it
+	 */
+	public int indexOf(int x, int y) {
+		return offset + y * scanlineStride + x * pixelStride;
+	}
+
+	/**
+	 * @return Index of the alpha byte of pixel (x, y) in
+	 *         {@link #getAlphaData()}
+	 */
+	public int alphaIndexOf(int x, int y) {
+		return alphaOffset + y * alphaScanlineStride + x * alphaPixelStride;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	public int getPixelStride() {
+		return pixelStride;
+	}
+
+	public int getRedOffset() {
+		return redOffset;
+	}
+
+	public int getGreenOffset() {
+		return greenOffset;
+	}
+
+	public int getBlueOffset() {
+		return blueOffset;
+	}
+
+	/**
+	 * @return The alpha bytes, or null if the image is opaque
+	 */
+	public byte[] getAlphaData() {
+		return alphaData;
+	}
+
+	public int getAlphaPixelStride() {
+		return alphaPixelStride;
+	}
+}
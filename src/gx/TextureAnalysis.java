@@ -0,0 +1,135 @@
+package gx;
+
+import java.util.Arrays;
+
+/**
+ * What a texture's pixels actually use, gathered in one pass over a
+ * {@link PixelSource} so a GX format can be picked for it: the alpha range,
+ * whether it is grey, and the largest error (per channel, alpha included)
+ * each of the uncompressed formats would make. A format with an error of 0
+ * stores the texture losslessly.
+ *
+ * The I formats show their intensity in all four channels, so I4/I8 are only
+ * exact for grey textures whose alpha equals their intensity.
+ */
+public class TextureAnalysis {
+	private boolean	opaque		= true;
+	private boolean	binaryAlpha	= true;
+	private boolean	greyscale	= true;
+	private int		minAlpha	= 0xFF;
+	private int		maxAlpha	= 0;
+	private int[]	maxError	= new int[16];
+
+	private TextureAnalysis() {
+		Arrays.fill(maxError, 0xFF);
+		maxError[GXFormat.RGBA8] = 0;
+	}
+
+	public static TextureAnalysis of(PixelSource src) {
+		TextureAnalysis analysis = new TextureAnalysis();
+		byte[] data = src.getData();
+		int ps = src.getPixelStride();
+		int ro = src.getRedOffset(), go = src.getGreenOffset(), bo = src.getBlueOffset();
+		byte[] alpha = src.getAlphaData();
+		int aps = src.getAlphaPixelStride();
+		boolean grey = true;
+		int minA = 0xFF, maxA = 0, binary = 0;
+		int errI4 = 0, errI8 = 0, errIA4 = 0, errIA8 = 0, err565 = 0, err5A3 = 0;
+
+		for (int y = 0; y < src.getHeight(); y++) {
+			int p = src.indexOf(0, y);
+			int ap = alpha != null ? src.alphaIndexOf(0, y) : 0;
+			for (int x = 0; x < src.getWidth(); x++, p += ps, ap += aps) {
+				int r = data[p + ro] & 0xFF, g = data[p + go] & 0xFF, b = data[p + bo] & 0xFF;
+				int a = alpha != null ? alpha[ap] & 0xFF : 0xFF;
+				minA = Math.min(minA, a);
+				maxA = Math.max(maxA, a);
+				binary |= a != 0 && a != 0xFF ? 1 : 0;
+
+				int i = GXColor.intensity(r, g, b);
+				int greyError = 0;
+				if (r != g || g != b) {
+					grey = false;
+					greyError = Math.max(Math.abs(r - i), Math.max(Math.abs(g - i), Math.abs(b - i)));
+				}
+				int i4 = GXColor.expand4(GXColor.quantize4(i));
+				int i4Error = Math.max(Math.abs(r - i4), Math.max(Math.abs(g - i4), Math.abs(b - i4)));
+				errI8 = Math.max(errI8, Math.max(greyError, Math.abs(a - i)));
+				errI4 = Math.max(errI4, Math.max(i4Error, Math.abs(a - i4)));
+				errIA8 = Math.max(errIA8, greyError);
+				errIA4 = Math.max(errIA4, Math.max(i4Error, error4(a)));
+
+				int rb5Error = Math.max(error5(r), error5(b));
+				err565 = Math.max(err565, Math.max(rb5Error, Math.max(error6(g), 0xFF - a)));
+				int error5A3;
+				if (GXColor.quantize3(a) == 7) {
+					error5A3 = Math.max(rb5Error, Math.max(error5(g), 0xFF - a));
+				} else {
+					error5A3 = Math.max(error3(a), Math.max(error4(r), Math.max(error4(g), error4(b))));
+				}
+				err5A3 = Math.max(err5A3, error5A3);
+			}
+		}
+
+		analysis.greyscale = grey;
+		analysis.minAlpha = minA;
+		analysis.maxAlpha = maxA;
+		analysis.opaque = minA == 0xFF;
+		analysis.binaryAlpha = binary == 0;
+		analysis.maxError[GXFormat.I4] = errI4;
+		analysis.maxError[GXFormat.I8] = errI8;
+		analysis.maxError[GXFormat.IA4] = errIA4;
+		analysis.maxError[GXFormat.IA8] = errIA8;
+		analysis.maxError[GXFormat.RGB565] = err565;
+		analysis.maxError[GXFormat.RGB5A3] = err5A3;
+		return analysis;
+	}
+
+	private static int error3(int v) {
+		return Math.abs(v - GXColor.expand3(GXColor.quantize3(v)));
+	}
+
+	private static int error4(int v) {
+		return Math.abs(v - GXColor.expand4(GXColor.quantize4(v)));
+	}
+
+	private static int error5(int v) {
+		return Math.abs(v - GXColor.expand5(GXColor.quantize5(v)));
+	}
+
+	private static int error6(int v) {
+		return Math.abs(v - GXColor.expand6(GXColor.quantize6(v)));
+	}
+
+	/** @return true if every pixel has an alpha of 0xFF */
+	public boolean isOpaque() {
+		return opaque;
+	}
+
+	/** @return true if every pixel has an alpha of either 0 or 0xFF */
+	public boolean hasBinaryAlpha() {
+		return binaryAlpha;
+	}
+
+	/** @return true if red, green and blue are equal in every pixel */
+	public boolean isGreyscale() {
+		return greyscale;
+	}
+
+	public int getMinAlpha() {
+		return minAlpha;
+	}
+
+	public int getMaxAlpha() {
+		return maxAlpha;
+	}
+
+	/**
+	 * @return The largest difference of any channel of any pixel once stored
+	 *         in the format and read back, 0 for RGBA8. Formats that aren't
+	 *         measured (CMPR, the CI formats) report 0xFF.
+	 */
+	public int getMaxError(int format) {
+		return maxError[format];
+	}
+}
@@ -1,14 +1,20 @@
 package packer;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.zip.GZIPOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 
-import org.apache.commons.lang.StringUtils;
+import gx.GXFormat;
+import gx.GXTiler;
+import gx.PixelSource;
+import png.PngDecoder;
+import png.PngHeader;
 
 /**
  * A basic archive entry. Contains the actual pixels + meta (conversion from
@@ -22,6 +28,19 @@ public class ArchiveEntry {
 	private byte[]				gxTexture;
 	private File				primaryFile;
 	private File				alphaFile;
+	private TextureName			textureName;
+	private SourceStamp			sourceStamp;
+	private PreviousPak			previousPak;
+	private DuplicateSources	duplicateSources;
+	private int					aliasOf			= -1;
+	private byte[]				entryDigest;
+	private int					sequence;
+	private Compressor			compressor		= Compressor.getDefault();
+	private FormatSelector		formatSelector	= new FormatSelector();
+	private MipmapBuilder		mipmapBuilder;
+	private BuildMetrics		metrics;
+	// Time readPNG() spent tiling and compressing a streamed texture
+	private long				streamedNanos;
 
 	// Examples of Hi-Res texture naming
 	// SUPER MARIO 64#0B6D2926#0#2_all.png
@@ -39,115 +58,393 @@ public class ArchiveEntry {
 	 * 
 	 * @param primaryFile
 	 * @param alphaFile
-	 * @throws InterruptedException
-	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             If primaryFile doesn't have a texture name
 	 */
 	public ArchiveEntry(File primaryFile, File alphaFile) {
+		this(primaryFile, alphaFile, TextureName.parse(primaryFile.getName()));
+	}
+
+	/**
+	 * @param textureName
+	 *            The primary file's name, parsed when it was scanned
+	 */
+	public ArchiveEntry(File primaryFile, File alphaFile, TextureName textureName) {
 		this.primaryFile = primaryFile;
 		this.alphaFile = alphaFile;
+		this.textureName = textureName;
 	}
 
 	public boolean process() {
-		int[] primaryPixels = null;
-		int[] alphaPixels = null;
-		boolean replaceAlphaWithB = StringUtils.startsWithIgnoreCase(
-				StringUtils.substringAfter(StringUtils.substringAfter(primaryFile.getName(), "#"), "#"), "4#");
+		sourceStamp = SourceStamp.of(primaryFile, alphaFile);
+		if (previousPak != null) {
+			try {
+				if (previousPak.reuse(this)) {
+					return true;
+				}
+			} catch (IOException e) {
+				// Just convert it again
+			}
+		}
+		if (duplicateSources != null) {
+			try {
+				if (sourceStamp.getDigest() == null) {
+					sourceStamp.setDigest(SourceStamp.digest(primaryFile, alphaFile));
+				}
+				aliasOf = duplicateSources.register(this);
+			} catch (IOException e) {
+				metaData = new ArchiveEntryMeta(textureName);
+				metaData.setErrorMsg("Failed to read file for hashing! Please check that this is a valid image.");
+				return false;
+			}
+			if (aliasOf >= 0) {
+				// Same files as an earlier entry, the pak writer points us at it
+				metaData = new ArchiveEntryMeta(textureName);
+				metaData.setRawPixelType("Duplicate sources");
+				return true;
+			}
+		}
 
-		metaData = new ArchiveEntryMeta();
-		metaData.setFileName(primaryFile.getAbsolutePath());
+		boolean replaceAlphaWithB = textureName.isBlueAlpha();
 
-		// Decompress the primary PNG
+		metaData = new ArchiveEntryMeta(textureName);
+
+		// Plain 8 bit PNGs are decoded here, anything else through ImageIO.
+		// RGBA8 textures without mipmaps are tiled and compressed a few rows
+		// at a time as they are decoded.
+		gxTexture = null;
+		streamedNanos = 0;
+		long start = System.nanoTime();
+		boolean stream = formatSelector.isRGBA8Only() && mipmapBuilder == null;
+		PixelSource source = readPNG(replaceAlphaWithB, stream);
+		if (source == null && gxTexture == null && stream) {
+			// Stored uncompressed after all, which takes the whole texture
+			source = readPNG(replaceAlphaWithB, false);
+		}
+		if (source == null && gxTexture == null) {
+			source = readImageIO(replaceAlphaWithB);
+			if (source == null) {
+				return false;
+			}
+		}
+		start = record(BuildMetrics.Stage.DECODE, start + streamedNanos);
+
+		// Encode straight out of the decoded pixels, 24bit with alpha from the
+		// _a file, 0xFF or B, or 32bit RGBA
+		if (source != null) {
+			FormatSelector.Encoded encoded = formatSelector.encode(source);
+			gxTexture = encoded.getData();
+			metaData.setGXFormat((short) encoded.getFormat());
+			metaData.setFormatError(encoded.getMaxError(), encoded.getRMSError());
 
-		// Grab the primary PNG pixels
-		File f = new File(metaData.getFileName());
+			// Mipmaps are halved from the decoded base level and stored after it
+			if (mipmapBuilder != null) {
+				List<byte[]> levels = mipmapBuilder.buildLevels(source, encoded.getFormat());
+				if (!levels.isEmpty()) {
+					gxTexture = appendLevels(gxTexture, levels);
+					metaData.setMipLevels(levels.size() + 1);
+				}
+			}
+			source = null;
+			start = record(BuildMetrics.Stage.CONVERT, start);
+
+			// Compress it
+			try {
+				Compressor.Result compressed = compressor.compress(gxTexture);
+				if (metrics != null) {
+					metrics.addCompressed(gxTexture.length, compressed.getData().length);
+				}
+				gxTexture = compressed.getData();
+				metaData.setEntryFlags(compressed.getFlags());
+			} catch (IOException e) {
+				metaData.setErrorMsg("Failed to compress converted image! Report this bug to the developer.");
+				return false;
+			}
+			record(BuildMetrics.Stage.COMPRESS, start);
+		}
+
+		metaData.setCompressedLength(gxTexture.length);
+
+		// Remember what we were built from for the next incremental build
+		if (sourceStamp.getDigest() == null) {
+			try {
+				sourceStamp.setDigest(SourceStamp.digest(primaryFile, alphaFile));
+			} catch (IOException e) {
+				metaData.setErrorMsg("Failed to read file for hashing! Please check that this is a valid image.");
+				return false;
+			}
+		}
+
+		computeEntryDigest();
+		return true;
+	}
+
+	/**
+	 * Records the time since start if there are metrics
+	 *
+	 * @return The current System.nanoTime(), to time the next stage from
+	 */
+	private long record(BuildMetrics.Stage stage, long start) {
+		return metrics != null ? metrics.recordSince(stage, start) : System.nanoTime();
+	}
+
+	/**
+	 * Decodes the PNGs with {@link PngDecoder}
+	 *
+	 * @param stream
+	 *            Tile the texture to RGBA8 and compress it a stripe at a time
+	 *            as it is decoded, into gxTexture, instead of decoding it
+	 *            whole. Neither the image nor the GX texture exist in one
+	 *            piece then, only the compressed texture.
+	 * @return The decoded texture, null if it is in gxTexture already, or
+	 *         if ImageIO has to decode the files or the streamed texture is
+	 *         to be stored uncompressed (gxTexture is null then)
+	 */
+	private PixelSource readPNG(boolean replaceAlphaWithB, boolean stream) {
+		PngDecoder png = null, alphaPng = null;
+		Compressor.Stream compressed = null;
+		try {
+			png = PngDecoder.open(primaryFile);
+			if (png == null) {
+				return null;
+			}
+			if (alphaFile != null && !png.hasAlpha()) {
+				alphaPng = PngDecoder.open(alphaFile);
+				if (alphaPng == null || alphaPng.getWidth() != png.getWidth()
+						|| alphaPng.getHeight() != png.getHeight()) {
+					// ImageIO reports what's wrong with it
+					return null;
+				}
+			}
+			metaData.setWidth(png.getWidth());
+			metaData.setHeight(png.getHeight());
+			metaData.setRawPixelType(png.getTypeName());
+			if (alphaPng != null) {
+				metaData.setAlphaWidth(alphaPng.getWidth());
+				metaData.setAlphaHeight(alphaPng.getHeight());
+				metaData.setRawAlphaPixelType(alphaPng.getTypeName());
+			}
+
+			if (!stream) {
+				PixelSource source = png.readAll();
+				addAlpha(source, png, alphaPng == null ? null : alphaPng.readAll(), replaceAlphaWithB);
+				return source;
+			}
+			compressed = compressor.newStream();
+			byte[] band = null;
+			PixelSource stripe;
+			long tileNanos = 0, compressNanos = 0, gxBytes = 0;
+			while ((stripe = png.readStripe()) != null) {
+				addAlpha(stripe, png, alphaPng == null ? null : alphaPng.readStripe(), replaceAlphaWithB);
+				long start = System.nanoTime();
+				band = GXTiler.tileRGBA8(stripe, band);
+				long tiled = System.nanoTime();
+				int size = GXTiler.getRGBA8Size(stripe.getWidth(), stripe.getHeight());
+				compressed.write(band, 0, size);
+				tileNanos += tiled - start;
+				compressNanos += System.nanoTime() - tiled;
+				gxBytes += size;
+			}
+			long start = System.nanoTime();
+			Compressor.Result result = compressed.finish();
+			if (result == null) {
+				return null;
+			}
+			compressNanos += System.nanoTime() - start;
+			formatSelector.count(GXFormat.RGBA8);
+			gxTexture = result.getData();
+			metaData.setEntryFlags(result.getFlags());
+			if (metrics != null) {
+				metrics.record(BuildMetrics.Stage.CONVERT, tileNanos);
+				metrics.record(BuildMetrics.Stage.COMPRESS, compressNanos);
+				metrics.addCompressed(gxBytes, gxTexture.length);
+			}
+			streamedNanos = tileNanos + compressNanos;
+			return null;
+		} catch (IOException e) {
+			// ImageIO has a go at it
+			return null;
+		} finally {
+			if (compressed != null) {
+				compressed.abort();
+			}
+			if (png != null) {
+				png.close();
+			}
+			if (alphaPng != null) {
+				alphaPng.close();
+			}
+		}
+	}
+
+	/** Alpha comes from the PNG, the _a file, the blue channel or is 0xFF */
+	private static void addAlpha(PixelSource source, PngDecoder png, PixelSource alphaSource, boolean replaceAlphaWithB) {
+		if (png.hasAlpha()) {
+			return;
+		}
+		if (alphaSource != null) {
+			source.setAlphaFrom(alphaSource);
+		} else if (replaceAlphaWithB) {
+			source.setBlueAsAlpha();
+		}
+	}
+
+	/**
+	 * Decodes the PNGs with ImageIO
+	 *
+	 * @return The decoded texture, null if it can't be read (the error is set)
+	 */
+	private PixelSource readImageIO(boolean replaceAlphaWithB) {
+		// Decompress the primary PNG
+		File f = primaryFile;
 		BufferedImage bufferedImage = null;
 		try {
 			bufferedImage = ImageIO.read(f);
+			if (bufferedImage == null) {
+				throw new IOException("No reader for " + f.getName());
+			}
 			metaData.setWidth(bufferedImage.getWidth());
 			metaData.setHeight(bufferedImage.getHeight());
 		} catch (IOException e) {
 			metaData.setErrorMsg("Failed to read Image from file! Please check that this is a valid image.");
-			return false;
+			return null;
 		}
 		metaData.setRawPixelType(getType(bufferedImage.getType()));
-		primaryPixels = bufferedImage.getRGB(0, 0, metaData.getWidth(), metaData.getHeight(), primaryPixels, 0, metaData.getWidth());
 
-		// Decompress the alpha PNG if it exists
+		// Decompress the alpha PNG if it exists and the primary has no alpha
 		BufferedImage alphaImage = null;
-		if (alphaFile != null) {
+		if (alphaFile != null && !bufferedImage.getColorModel().hasAlpha()) {
 			try {
 				alphaImage = ImageIO.read(alphaFile);
+				if (alphaImage == null) {
+					throw new IOException("No reader for " + alphaFile.getName());
+				}
 				metaData.setAlphaWidth(alphaImage.getWidth());
 				metaData.setAlphaHeight(alphaImage.getHeight());
 			} catch (IOException e) {
 				metaData.setErrorMsg("Failed to read alpha Image from file! Please check that this is a valid image.");
-				return false;
+				return null;
 			}
 			metaData.setRawAlphaPixelType(getType(alphaImage.getType()));
-			alphaPixels = alphaImage.getRGB(0, 0, metaData.getAlphaWidth(), metaData.getAlphaHeight(), alphaPixels, 0, metaData.getAlphaWidth());
+			if (alphaImage.getWidth() != bufferedImage.getWidth() || alphaImage.getHeight() != bufferedImage.getHeight()) {
+				metaData.setErrorMsg("Alpha data cannot differ in dimensions from RGB data, to continue, delete/fix the _a.png file and start the process again");
+				return null;
+			}
 		}
+		return PixelSource.wrap(bufferedImage, alphaImage, replaceAlphaWithB);
+	}
 
-		// Convert 24bit or 24bit + alpha/etc
-		if (bufferedImage.getType() == BufferedImage.TYPE_3BYTE_BGR) {
-			if (alphaPixels != null && alphaPixels.length != primaryPixels.length) {
-				metaData.setErrorMsg("Alpha data cannot differ in dimensions from RGB data, to continue, delete/fix the _a.png file and start the process again");
-				return false;
+	/**
+	 * Hashes the entry as it will be stored in the pak (header + compressed
+	 * texture), identical entries can then be stored once
+	 */
+	private void computeEntryDigest() {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.update((byte) (metaData.getWidth() / 4));
+			md.update((byte) (metaData.getHeight() / 4));
+			md.update(metaData.getFormatByte());
+			if (metaData.getMipLevels() > 1) {
+				md.update((byte) metaData.getMipLevels());
 			}
-			convertTex24bpp(primaryPixels, alphaPixels, replaceAlphaWithB);
+			md.update(gxTexture);
+			entryDigest = md.digest();
+		} catch (NoSuchAlgorithmException e) {
+			entryDigest = null;
 		}
-		// Else, simple 32 bit RGBA conversion
-		else if (bufferedImage.getType() == BufferedImage.TYPE_4BYTE_ABGR) {
-			convertTex32bpp(primaryPixels);
+	}
+
+	/**
+	 * Fills this entry from an entry of a previous pak (header + compressed
+	 * texture) instead of converting the source files.
+	 *
+	 * @return false if the stored entry doesn't belong to this file
+	 */
+	boolean reuse(byte[] storedEntry, long crc64) {
+		if (storedEntry.length < 3) {
+			return false;
 		}
-		primaryPixels = null;
-		alphaPixels = null;
-		bufferedImage = null;
-		alphaImage = null;
-
-		// Compress it
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		GZIPOutputStream gz = null;
-		try {
-			gz = new GZIPOutputStream(bos);
-			gz.write(gxTexture);
-			gz.flush();
-			gz.close();
-			gxTexture = bos.toByteArray();
-			bos.close();
-		} catch (IOException e) {
-			metaData.setErrorMsg("Failed to compress converted image! Report this bug to the developer.");
+		if (textureName.getCRC64() != crc64) {
 			return false;
 		}
-		gz = null;
-		bos = null;
-
+		metaData = new ArchiveEntryMeta(textureName);
+		metaData.setWidth((storedEntry[0] & 0xFF) * 4);
+		metaData.setHeight((storedEntry[1] & 0xFF) * 4);
+		metaData.setGXFormat((short) (storedEntry[2] & 0x0F));
+		metaData.setEntryFlags(storedEntry[2] & 0xF0 & ~ArchiveEntryMeta.FLAG_MIPMAPS);
+		if ((storedEntry[2] & ArchiveEntryMeta.FLAG_MIPMAPS) != 0) {
+			if (storedEntry.length < 4) {
+				return false;
+			}
+			metaData.setMipLevels(storedEntry[3] & 0xFF);
+		}
+		metaData.setRawPixelType("Reused from previous pak");
+		gxTexture = Arrays.copyOfRange(storedEntry, metaData.getHeaderLength(), storedEntry.length);
 		metaData.setCompressedLength(gxTexture.length);
+		computeEntryDigest();
+		return true;
+	}
 
-		// Standardise directory separators across platforms
-		metaData.setFileName(StringUtils.substringAfterLast(StringUtils.replace(metaData.getFileName(), "\\", "/"), "/"));
-
-		String textureInfo = StringUtils.substringAfter(metaData.getFileName(), "#");
-
-		metaData.setTextureCRC(Long.parseLong(StringUtils.substringBefore(textureInfo, "#"), 16));
-		textureInfo = StringUtils.substringAfter(textureInfo, "#");
-		metaData.setFormat(Short.parseShort(StringUtils.substringBefore(textureInfo, "#"), 16));
-		textureInfo = StringUtils.substringAfter(textureInfo, "#");
-
-		// PaletteCRC might be supplied
-		if (StringUtils.contains(textureInfo, "#")) {
-			metaData.setSize(Short.parseShort(StringUtils.substringBefore(textureInfo, "#"), 16));
-			textureInfo = StringUtils.substringAfter(textureInfo, "#");
-			metaData.setPaletteCRC(Long.parseLong(StringUtils.substringBefore(textureInfo, "_"), 16));
-			textureInfo = StringUtils.substringAfter(textureInfo, "_");
-		} else {
-			metaData.setPaletteCRC(new Long(-1));
-			metaData.setSize(Short.parseShort(StringUtils.substringBefore(textureInfo, "_"), 16));
-			textureInfo = StringUtils.substringAfter(textureInfo, "_");
+	/** @return The base level followed by the mipmap levels, largest first */
+	private static byte[] appendLevels(byte[] base, List<byte[]> levels) {
+		int length = base.length;
+		for (byte[] level : levels) {
+			length += level.length;
+		}
+		byte[] texture = Arrays.copyOf(base, length);
+		int offset = base.length;
+		for (byte[] level : levels) {
+			System.arraycopy(level, 0, texture, offset, level.length);
+			offset += level.length;
 		}
+		return texture;
+	}
 
-		metaData.setType(StringUtils.substringBefore(textureInfo, "."));
+	/**
+	 * Estimates the heap {@link #process()} needs at its peak from the PNG
+	 * headers, without decoding anything: the decoded image, the GX texture
+	 * and the compressed output for the primary image plus the decoded alpha
+	 * image, the palette quantizer's colour tables and the mipmap levels.
+	 *
+	 * @return estimated bytes, or 0 if the headers can't be read (process()
+	 *         reports the error)
+	 */
+	public long estimateMemoryUsage() {
+		return estimateMemoryUsage(getPixelCount(primaryFile), alphaFile != null ? getPixelCount(alphaFile) : 0);
+	}
 
-		return true;
+	/**
+	 * @param pixels
+	 *            width * height of the primary image
+	 * @param alphaPixels
+	 *            width * height of the alpha image, 0 if there is none
+	 * @see #estimateMemoryUsage()
+	 */
+	public long estimateMemoryUsage(long pixels, long alphaPixels) {
+		long estimate = pixels * (12 + 4 * (compressor.getNumSettings() - 1)) + alphaPixels * 5;
+		// The distinct colours of a texture can be as many as its pixels
+		estimate += pixels * formatSelector.getBytesPerPixel();
+		if (mipmapBuilder != null) {
+			estimate += pixels * mipmapBuilder.getBytesPerPixel();
+		}
+		return estimate;
+	}
+
+	/** Reads width * height out of the PNG IHDR chunk */
+	private static long getPixelCount(File png) {
+		try {
+			return PngHeader.read(png).getPixelCount();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Drops the compressed texture once it has been written to the pak, only
+	 * the meta data is kept
+	 */
+	public void releaseTexture() {
+		gxTexture = null;
 	}
 
 	private String getType(int type) {
@@ -160,101 +457,110 @@ public class ArchiveEntry {
 		return "Unknown";
 	}
 
+	public byte[] getGXTexture() {
+		return gxTexture;
+	}
+
+	public ArchiveEntryMeta getMeta() {
+		return metaData;
+	}
+
+	public TextureName getTextureName() {
+		return textureName;
+	}
+
+	public File getPrimaryFile() {
+		return primaryFile;
+	}
+
+	public File getAlphaFile() {
+		return alphaFile;
+	}
+
 	/**
-	 * Converts a 32 Bit RGBA Pixel Array into a GX Array
-	 * 
-	 * @param data
-	 * @return
+	 * @return Size, modification time and hash of the source files, set by
+	 *         {@link #process()}
 	 */
-	public void convertTex32bpp(int[] data) {
-		byte R, G, B, A;
-		int color, x, y, ind = 0;
-		int w = metaData.getWidth() - (metaData.getWidth() % 4);
-		int h = metaData.getHeight() - (metaData.getHeight() % 4);
-		short[] GX_buffer = new short[(int) (h * w * 2)];
-
-		for (int i = 0; i < h; i += 4) {
-			for (int j = 0; j < w; j += 4) {
-				for (int ii = 0; ii < 4; ii++) {
-					for (int jj = 0; jj < 4; jj++) {
-						x = j + jj;
-						y = i + ii;
-						color = data[(int) ((y * w) + x)];
-						R = (byte) ((color >> 16) & 0xFF);
-						G = (byte) ((color >> 8) & 0xFF);
-						B = (byte) ((color >> 0) & 0xFF);
-						A = (byte) ((color >> 24) & 0xFF);
-						GX_buffer[ind] = (short) (((A & 0xFF) << 8) | (R & 0xFF));
-						GX_buffer[ind + 16] = (short) (((G & 0xFF) << 8) | (B & 0xFF));
-						ind++;
-					}
-				}
-				ind += 16;
-			}
-		}
-		gxTexture = new byte[GX_buffer.length * 2];
-		for (int i = 0; i < GX_buffer.length; i++) {
-			gxTexture[i * 2] = (byte) (GX_buffer[i] >> 8);
-			gxTexture[(i * 2) + 1] = (byte) (GX_buffer[i] & 0xFF);
-		}
+	public SourceStamp getSourceStamp() {
+		return sourceStamp;
 	}
 
 	/**
-	 * Converts a 24 Bit RGB Pixel Array into a GX Array, either with alpha in a
-	 * seperate buff or 0xFF or replacing it with B
-	 * 
-	 * @param data
-	 * @param needsAlpha
-	 * @param alphaPixels
-	 * @param replaceAlphaWithB
-	 * @return
+	 * @return The sequence number of the earlier entry with identical source
+	 *         files this entry stands in for, or -1 if it has its own texture
 	 */
-	public void convertTex24bpp(int[] primaryPixels, int[] alphaPixels, boolean replaceAlphaWithB) {
-		byte R, G, B, A;
-		int x, y, ind = 0;
-		int w = metaData.getWidth() - (metaData.getWidth() % 4);
-		int h = metaData.getHeight() - (metaData.getHeight() % 4);
-		short[] GX_buffer = new short[(int) (h * w * 2)];
-
-		for (int i = 0; i < h; i += 4) {
-			for (int j = 0; j < w; j += 4) {
-				for (int ii = 0; ii < 4; ii++) {
-					for (int jj = 0; jj < 4; jj++) {
-						x = j + jj;
-						y = i + ii;
-						int color = primaryPixels[(int) ((y * w) + x)];
-						R = (byte) ((color >> 16) & 0xFF);
-						G = (byte) ((color >> 8) & 0xFF);
-						B = (byte) ((color >> 0) & 0xFF);
-						if (alphaPixels != null) {
-							A = (byte) (alphaPixels[(int) ((y * w) + x)] & 0xFF);
-						} else if (replaceAlphaWithB) {
-							A = (byte) B;
-						} else {
-							A = (byte) 0xFF;
-						}
-
-						GX_buffer[ind] = (short) (((A & 0xFF) << 8) | (R & 0xFF));
-						GX_buffer[ind + 16] = (short) (((G & 0xFF) << 8) | (B & 0xFF));
-						ind++;
-					}
-				}
-				ind += 16;
-			}
-		}
-		gxTexture = new byte[GX_buffer.length * 2];
-		for (int i = 0; i < GX_buffer.length; i++) {
-			gxTexture[i * 2] = (byte) (GX_buffer[i] >> 8);
-			gxTexture[(i * 2) + 1] = (byte) (GX_buffer[i] & 0xFF);
-		}
+	public int getAliasOf() {
+		return aliasOf;
 	}
 
-	public byte[] getGXTexture() {
-		return gxTexture;
+	/**
+	 * @return SHA-1 of the entry as stored in the pak, or null
+	 */
+	public byte[] getEntryDigest() {
+		return entryDigest;
 	}
 
-	public ArchiveEntryMeta getMeta() {
-		return metaData;
+	/**
+	 * @return The position of this entry in the pak's write order
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(int sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * @param compressor
+	 *            How to compress the converted texture, gzip by default
+	 */
+	public void setCompressor(Compressor compressor) {
+		this.compressor = compressor;
+	}
+
+	/**
+	 * @param formatSelector
+	 *            Picks the GX format of the converted texture, RGBA8 by
+	 *            default
+	 */
+	public void setFormatSelector(FormatSelector formatSelector) {
+		this.formatSelector = formatSelector;
+	}
+
+	/**
+	 * @param mipmapBuilder
+	 *            Builds the mipmap levels stored after the texture, null for
+	 *            none (the default)
+	 */
+	public void setMipmapBuilder(MipmapBuilder mipmapBuilder) {
+		this.mipmapBuilder = mipmapBuilder;
+	}
+
+	/**
+	 * @param metrics
+	 *            Where to record the time each stage takes, null for nowhere
+	 *            (the default)
+	 */
+	public void setMetrics(BuildMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param duplicateSources
+	 *            Index of source files seen so far, to skip converting
+	 *            duplicates of earlier entries. Null to convert every entry.
+	 */
+	public void setDuplicateSources(DuplicateSources duplicateSources) {
+		this.duplicateSources = duplicateSources;
+	}
+
+	/**
+	 * @param previousPak
+	 *            Pak to take this entry from if its sources are unchanged
+	 */
+	public void setPreviousPak(PreviousPak previousPak) {
+		this.previousPak = previousPak;
 	}
 
 }
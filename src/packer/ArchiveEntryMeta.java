@@ -1,129 +1,203 @@
 package packer;
 
+import gx.GXFormat;
+
 /**
- * Contains Meta data for a archive entry
+ * Contains Meta data for a archive entry, kept only until the entry is
+ * written, the pak writer keeps what it needs in its {@link EntryTable}
  * 
  * @author emu_kidid
  * 
  */
 public class ArchiveEntryMeta {
-	private String	type, fileName;
-	private Long	textureCRC, paletteCRC, offset;
-	private Short	format, size;
-	private Integer	compressedLength, width, height;
-	private Integer	alphaWidth, alphaHeight;
-	private String	rawPixelType, rawAlphaPixelType;
-	private String	errorMsg;
+	/** gx_fmt flag, a u8 level count follows and the levels follow the base */
+	public static final int	FLAG_MIPMAPS	= 0x20;
+
+	// The CRCs, format, size and type
+	private TextureName		textureName;
+	// -1 until the entry is added to the pak
+	private long			offset			= -1;
+	private short			gxFormat		= GXFormat.RGBA8;
+	private int				entryFlags		= 0;	// Compressor.FLAG_*
+	private int				mipLevels		= 1;
+	private int				formatMaxError	= 0;
+	private double			formatRMSError	= 0;
+	private int				compressedLength, width, height;
+	private int				alphaWidth, alphaHeight;
+	// Names of the pixel types, shared by all entries of the type
+	private String			rawPixelType, rawAlphaPixelType;
+	private String			errorMsg;
+
+	/**
+	 * @param textureName
+	 *            The parsed name of the entry's primary file
+	 */
+	public ArchiveEntryMeta(TextureName textureName) {
+		this.textureName = textureName;
+	}
+
+	public int getCompressedLength() {
+		return compressedLength;
+	}
+
+	public void setCompressedLength(int compressedLength) {
+		this.compressedLength = compressedLength;
+	}
 
-	public ArchiveEntryMeta() {
+	public int getWidth() {
+		return width;
 	}
 
-	public void setTextureCRC(Long textureCRC) {
-		this.textureCRC = textureCRC;
+	public void setWidth(int width) {
+		this.width = width;
 	}
 
-	public void setPaletteCRC(Long paletteCRC) {
-		this.paletteCRC = paletteCRC;
+	public int getHeight() {
+		return height;
 	}
 
-	public void setFormat(Short format) {
-		this.format = format;
+	public void setHeight(int height) {
+		this.height = height;
 	}
 
-	public void setSize(Short size) {
-		this.size = size;
+	/** @return Where the entry is in the pak, -1 until it is added */
+	public long getOffset() {
+		return offset;
 	}
 
-	public void setCompressedLength(Integer compressedLength) {
-		this.compressedLength = compressedLength;
+	public void setOffset(long offset) {
+		this.offset = offset;
 	}
 
-	public Integer getWidth() {
-		return width;
+	public TextureName getTextureName() {
+		return textureName;
 	}
 
-	public void setWidth(Integer width) {
-		this.width = width;
+	/** @return The primary file's name, without any directories */
+	public String getFileName() {
+		return textureName.getFileName();
 	}
 
-	public Integer getHeight() {
-		return height;
+	/** @see TextureName#getCRC64(long, long, int, int) */
+	public long getCRC64() {
+		return textureName.getCRC64();
 	}
 
-	public void setHeight(Integer height) {
-		this.height = height;
+	public String toString() {
+		String str = textureName.getFileName() + " textureCRC: "
+				+ Long.toHexString(textureName.getTextureCRC()).toUpperCase() + "(type: " + textureName.getType()
+				+ ") paletteCRC: " + Long.toHexString(textureName.getPaletteCRC()).toUpperCase() + "\nformat: "
+				+ Integer.toHexString(textureName.getFormat()).toUpperCase() + " size: "
+				+ Integer.toHexString(textureName.getSize()).toUpperCase() + " width * height: " + width + " x "
+				+ height + " compressedLength: " + compressedLength + " gxFormat: " + GXFormat.getName(gxFormat)
+				+ getFormatErrorString() + (mipLevels > 1 ? " mip levels: " + mipLevels : "") + "\nu64 crc: "
+				+ Long.toHexString(getCRC64()).toUpperCase() + " Pixel Data Type: " + rawPixelType
+				+ (rawAlphaPixelType != null ? (" Alpha Type: " + rawAlphaPixelType) : "");
+		return str;
 	}
 
-	public Long getOffset() {
-		return offset;
+	private String getFormatErrorString() {
+		String str = "";
+		if (formatMaxError != 0) {
+			str += " max error: " + (formatMaxError < 0 ? "unknown" : Integer.toString(formatMaxError));
+		}
+		if (formatRMSError > 0) {
+			str += String.format(" rms error: %.2f", formatRMSError);
+		}
+		return str;
 	}
 
-	public void setOffset(Long offset) {
-		this.offset = offset;
+	/**
+	 * @param maxError
+	 *            Largest error of any channel in the chosen GX format, -1 if
+	 *            unknown
+	 * @param rmsError
+	 *            Root mean square error in the chosen GX format, -1 if unknown
+	 */
+	public void setFormatError(int maxError, double rmsError) {
+		this.formatMaxError = maxError;
+		this.formatRMSError = rmsError;
 	}
 
-	public void setType(String type) {
-		this.type = type;
+	public int getFormatMaxError() {
+		return formatMaxError;
 	}
 
-	public String getFileName() {
-		return fileName;
+	public double getFormatRMSError() {
+		return formatRMSError;
 	}
 
-	public void setFileName(String fileName) {
-		this.fileName = fileName;
+	public short getGXFormat() {
+		return gxFormat;
 	}
 
-	public Long getTextureCRC() {
-		return textureCRC;
+	public void setGXFormat(short gxFormat) {
+		this.gxFormat = gxFormat;
 	}
 
-	public Long getCRC64() {
-		// unsigned int crc32;
-		// unsigned char pal_crc32_byte1;
-		// unsigned char pal_crc32_byte2;
-		// unsigned char pal_crc32_byte3;
-		// unsigned format : 4;
-		// unsigned size : 4;
-		return (long) (((textureCRC & 0xFFFFFFFF) << 32) | (paletteCRC & 0x00000000FFFFFF00L) | ((format & 0xF) << 4) | (size & 0xF));
+	/**
+	 * @return Flags stored in the top bits of gx_fmt, see {@link Compressor}
+	 */
+	public int getEntryFlags() {
+		return entryFlags;
 	}
 
-	public String toString() {
-		String str = fileName + " textureCRC: " + Long.toHexString(textureCRC).toUpperCase() + "(type: " + type
-				+ ") paletteCRC: " + Long.toHexString(paletteCRC).toUpperCase() + "\nformat: "
-				+ Integer.toHexString(format).toUpperCase() + " size: " + Integer.toHexString(size).toUpperCase()
-				+ " width * height: " + width + " x " + height + " compressedLength: " + compressedLength
-				+ "\nu64 crc: " + Long.toHexString(getCRC64()).toUpperCase() + " Pixel Data Type: " + rawPixelType
-				+ (rawAlphaPixelType != null ? (" Alpha Type: " + rawAlphaPixelType) : "");
-		return str;
+	public void setEntryFlags(int entryFlags) {
+		this.entryFlags = entryFlags;
+	}
+
+	/**
+	 * @return The gx_fmt byte of the entry header: GX format in the low 4
+	 *         bits, entry flags in the top bits
+	 */
+	public byte getFormatByte() {
+		return (byte) ((gxFormat & 0x0F) | entryFlags | (mipLevels > 1 ? FLAG_MIPMAPS : 0));
+	}
+
+	/** @return Levels stored in the entry, the base level included */
+	public int getMipLevels() {
+		return mipLevels;
+	}
+
+	public void setMipLevels(int mipLevels) {
+		this.mipLevels = mipLevels;
 	}
 
-	public Short getGXFormat() {
-		return 6; // GX_TF_RGBA8
+	/**
+	 * @return Bytes of the entry header: width, height and gx_fmt, plus the
+	 *         level count of mipmapped entries
+	 */
+	public int getHeaderLength() {
+		return mipLevels > 1 ? 4 : 3;
 	}
 
-	public Integer getAlphaWidth() {
+	public int getAlphaWidth() {
 		return alphaWidth;
 	}
 
-	public void setAlphaWidth(Integer alphaWidth) {
+	public void setAlphaWidth(int alphaWidth) {
 		this.alphaWidth = alphaWidth;
 	}
 
-	public Integer getAlphaHeight() {
+	public int getAlphaHeight() {
 		return alphaHeight;
 	}
 
-	public void setAlphaHeight(Integer alphaHeight) {
+	public void setAlphaHeight(int alphaHeight) {
 		this.alphaHeight = alphaHeight;
 	}
 
+	/**
+	 * @param rawPixelType
+	 *            Description of the source pixels, interned as only a few
+	 *            different ones exist
+	 */
 	public void setRawPixelType(String rawPixelType) {
-		this.rawPixelType = rawPixelType;
+		this.rawPixelType = rawPixelType != null ? rawPixelType.intern() : null;
 	}
 
 	public void setRawAlphaPixelType(String rawAlphaPixelType) {
-		this.rawAlphaPixelType = rawAlphaPixelType;
+		this.rawAlphaPixelType = rawAlphaPixelType != null ? rawAlphaPixelType.intern() : null;
 	}
 
 	public String getErrorMsg() {
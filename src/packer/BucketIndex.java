@@ -0,0 +1,93 @@
+package packer;
+
+import util.Log;
+
+/**
+ * Radix bucket index over the sorted LUT, written after it when
+ * {@link PakWriter#setBucketIndex(boolean)} is on. The top bits of the CRC64
+ * pick a bucket, the index holds the LUT position each bucket starts at, so a
+ * loader reads two u32s and then only that bucket's LUT entries instead of
+ * binary searching the whole table:
+ *
+ * u32 bits; // 8 to 16<br>
+ * u32 start[(1 << bits) + 1]; // bucket b is LUT entries start[b] to
+ * start[b + 1] - 1
+ *
+ * The texture CRC32 makes up the top of the CRC64, so the buckets fill
+ * evenly.
+ */
+public class BucketIndex {
+	public static final int	MIN_BITS	= 8;
+	public static final int	MAX_BITS	= 16;
+
+	private int				bits;
+	private int[]			starts;
+
+	private BucketIndex(int bits, int[] starts) {
+		this.bits = bits;
+		this.starts = starts;
+	}
+
+	/**
+	 * Uses about one bucket per entry, between 2^{@link #MIN_BITS} and
+	 * 2^{@link #MAX_BITS} of them
+	 *
+	 * @param lookupTable
+	 *            The LUT, sorted
+	 */
+	public static BucketIndex build(LookupTable lookupTable) {
+		int bits = MIN_BITS;
+		while (bits < MAX_BITS && (1 << bits) < lookupTable.size()) {
+			bits++;
+		}
+		int[] starts = new int[(1 << bits) + 1];
+		int i = 0;
+		for (int bucket = 0; bucket < (1 << bits); bucket++) {
+			starts[bucket] = i;
+			while (i < lookupTable.size() && getBucket(lookupTable.getKey(i), bits) == bucket) {
+				i++;
+			}
+		}
+		starts[1 << bits] = i;
+		return new BucketIndex(bits, starts);
+	}
+
+	public static int getBucket(long crc64, int bits) {
+		return (int) (crc64 >>> (64 - bits));
+	}
+
+	public int getBits() {
+		return bits;
+	}
+
+	public int getNumBuckets() {
+		return 1 << bits;
+	}
+
+	/** @return The LUT position bucket starts at, bucket may be getNumBuckets() */
+	public int getStart(int bucket) {
+		return starts[bucket];
+	}
+
+	/** @return Size of the index in the pak */
+	public int getLength() {
+		return 4 + starts.length * 4;
+	}
+
+	public void printStats() {
+		int empty = 0, largest = 0;
+		int[] histogram = new int[5];
+		for (int bucket = 0; bucket < getNumBuckets(); bucket++) {
+			int size = starts[bucket + 1] - starts[bucket];
+			empty += size == 0 ? 1 : 0;
+			largest = Math.max(largest, size);
+			histogram[Math.min(size, 4)]++;
+		}
+		int entries = starts[getNumBuckets()];
+		Log.info("Bucket index: " + getNumBuckets() + " buckets, " + empty + " empty, "
+				+ String.format("%.2f", entries / (double) Math.max(getNumBuckets() - empty, 1))
+				+ " entries per used bucket, largest " + largest);
+		Log.info("Buckets holding 1: " + histogram[1] + ", 2: " + histogram[2] + ", 3: " + histogram[3] + ", 4+: "
+				+ histogram[4]);
+	}
+}
@@ -0,0 +1,336 @@
+package packer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import util.Log;
+
+/**
+ * Counters and latency histograms for every stage of a pak build, shared by
+ * the converter threads and the writer. While the build runs they can be
+ * watched through JMX ({@link BuildMetricsMXBean}, "packer:type=BuildMetrics"),
+ * at the end they are logged and can be written out as JSON.
+ *
+ * Stage times are wall clock per call, summed over all threads. Together
+ * with the GC time over the build they show whether the conversion threads
+ * (decode/convert/compress), the disk (scan/write/finalize) or the GC is
+ * holding the build up.
+ */
+public class BuildMetrics implements BuildMetricsMXBean {
+	public static final String	OBJECT_NAME	= "packer:type=BuildMetrics";
+
+	public enum Stage {
+		/** Walking the texture directory */
+		SCAN,
+		/** Reading and decoding the PNGs */
+		DECODE,
+		/** Picking the GX format, encoding and mipmaps */
+		CONVERT,
+		/** Compressing the GX texture */
+		COMPRESS,
+		/** Adding the entry to the pak */
+		WRITE,
+		/** Writing the LUT and manifest */
+		FINALIZE;
+
+		public String getName() {
+			return name().toLowerCase();
+		}
+	}
+
+	// Latencies go in power of two buckets of nanoseconds
+	private static final int	BUCKETS		= 64;
+
+	private static class Timer {
+		private AtomicLong		count		= new AtomicLong();
+		private AtomicLong		totalNanos	= new AtomicLong();
+		private AtomicLong		maxNanos	= new AtomicLong();
+		private AtomicLongArray	histogram	= new AtomicLongArray(BUCKETS);
+
+		void record(long nanos) {
+			nanos = Math.max(nanos, 0);
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			histogram.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos) - 1 + (nanos == 0 ? 1 : 0));
+			long max;
+			while ((max = maxNanos.get()) < nanos && !maxNanos.compareAndSet(max, nanos)) {
+			}
+		}
+
+		/** @return The upper bound of the bucket the percentile falls in */
+		long getPercentileNanos(double percentile) {
+			long target = (long) Math.ceil(count.get() * percentile);
+			long seen = 0;
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				seen += histogram.get(bucket);
+				if (seen >= target && seen > 0) {
+					return Math.min(bucket == BUCKETS - 1 ? Long.MAX_VALUE : (2L << bucket) - 1, maxNanos.get());
+				}
+			}
+			return 0;
+		}
+
+		double getMeanNanos() {
+			long n = count.get();
+			return n > 0 ? totalNanos.get() / (double) n : 0;
+		}
+	}
+
+	private Map<Stage, Timer>	timers			= new LinkedHashMap<Stage, Timer>();
+	private AtomicLong			entries			= new AtomicLong();
+	private AtomicLong			bytesIn			= new AtomicLong();
+	private AtomicLong			bytesOut		= new AtomicLong();
+	private AtomicLong			convertedBytes	= new AtomicLong();
+	private AtomicLong			compressedBytes	= new AtomicLong();
+	private long				startNanos;
+	// Set last by finish(), JMX reads the metrics from other threads
+	private volatile long		endNanos		= 0;
+	// Totals of all collectors at the start and at the end
+	private long				startGCCount, startGCMillis, endGCCount, endGCMillis;
+	private ObjectName			objectName;
+
+	/** Starts the build clock */
+	public BuildMetrics() {
+		for (Stage stage : Stage.values()) {
+			timers.put(stage, new Timer());
+		}
+		startNanos = System.nanoTime();
+		startGCCount = totalGCCount();
+		startGCMillis = totalGCMillis();
+	}
+
+	public void record(Stage stage, long nanos) {
+		timers.get(stage).record(nanos);
+	}
+
+	/**
+	 * Records the time since start
+	 *
+	 * @return The current System.nanoTime(), to time the next stage from
+	 */
+	public long recordSince(Stage stage, long start) {
+		long now = System.nanoTime();
+		record(stage, now - start);
+		return now;
+	}
+
+	/**
+	 * @param sourceBytes
+	 *            Size of the entry's PNGs
+	 * @param writtenBytes
+	 *            Bytes the entry added to the pak, 0 for duplicates
+	 */
+	public void addEntry(long sourceBytes, long writtenBytes) {
+		entries.incrementAndGet();
+		bytesIn.addAndGet(sourceBytes);
+		bytesOut.addAndGet(writtenBytes);
+	}
+
+	/** Counts a converted texture before and after compression */
+	public void addCompressed(long gxBytes, long compressedBytes) {
+		convertedBytes.addAndGet(gxBytes);
+		this.compressedBytes.addAndGet(compressedBytes);
+	}
+
+	/** Stops the build clock */
+	public void finish() {
+		if (endNanos == 0) {
+			endGCCount = totalGCCount();
+			endGCMillis = totalGCMillis();
+			endNanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Makes the metrics visible through the platform MBean server until
+	 * {@link #unregister()}, does nothing if another build has them
+	 * registered
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+				objectName = name;
+			}
+		} catch (JMException e) {
+			Log.info("Build metrics aren't available through JMX: " + e.getMessage());
+		}
+	}
+
+	public void unregister() {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e) {
+			}
+			objectName = null;
+		}
+	}
+
+	@Override
+	public long getElapsedMillis() {
+		return ((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos) / 1000000;
+	}
+
+	@Override
+	public long getEntries() {
+		return entries.get();
+	}
+
+	@Override
+	public double getEntriesPerSecond() {
+		return entries.get() * 1000.0 / Math.max(getElapsedMillis(), 1);
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	@Override
+	public double getCompressionRatio() {
+		long compressed = compressedBytes.get();
+		return compressed > 0 ? convertedBytes.get() / (double) compressed : 0;
+	}
+
+	@Override
+	public long getGCCount() {
+		return (endNanos != 0 ? endGCCount : totalGCCount()) - startGCCount;
+	}
+
+	@Override
+	public long getGCMillis() {
+		return (endNanos != 0 ? endGCMillis : totalGCMillis()) - startGCMillis;
+	}
+
+	private static long totalGCCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(gc.getCollectionCount(), 0);
+		}
+		return count;
+	}
+
+	private static long totalGCMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(gc.getCollectionTime(), 0);
+		}
+		return millis;
+	}
+
+	@Override
+	public Map<String, Long> getStageCounts() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (Map.Entry<Stage, Timer> timer : timers.entrySet()) {
+			counts.put(timer.getKey().getName(), timer.getValue().count.get());
+		}
+		return counts;
+	}
+
+	@Override
+	public Map<String, Double> getStageTotalMillis() {
+		Map<String, Double> totals = new LinkedHashMap<String, Double>();
+		for (Map.Entry<Stage, Timer> timer : timers.entrySet()) {
+			totals.put(timer.getKey().getName(), timer.getValue().totalNanos.get() / 1e6);
+		}
+		return totals;
+	}
+
+	@Override
+	public Map<String, Double> getStageMeanMillis() {
+		Map<String, Double> means = new LinkedHashMap<String, Double>();
+		for (Map.Entry<Stage, Timer> timer : timers.entrySet()) {
+			means.put(timer.getKey().getName(), timer.getValue().getMeanNanos() / 1e6);
+		}
+		return means;
+	}
+
+	@Override
+	public Map<String, Double> getStageP99Millis() {
+		Map<String, Double> p99s = new LinkedHashMap<String, Double>();
+		for (Map.Entry<Stage, Timer> timer : timers.entrySet()) {
+			p99s.put(timer.getKey().getName(), timer.getValue().getPercentileNanos(0.99) / 1e6);
+		}
+		return p99s;
+	}
+
+	public void printStats() {
+		Log.info("Build took " + getElapsedMillis() + " ms, " + format(getEntriesPerSecond()) + " entries/s, "
+				+ getBytesIn() + " bytes in, " + getBytesOut() + " bytes out, compression ratio "
+				+ format(getCompressionRatio()) + ", GC " + getGCCount() + " collections in " + getGCMillis() + " ms");
+		for (Map.Entry<Stage, Timer> entry : timers.entrySet()) {
+			Timer timer = entry.getValue();
+			if (timer.count.get() > 0) {
+				Log.info("  " + entry.getKey().getName() + ": " + timer.count.get() + " in "
+						+ format(timer.totalNanos.get() / 1e6) + " ms, mean " + format(timer.getMeanNanos() / 1e6)
+						+ " ms, p50 " + format(timer.getPercentileNanos(0.5) / 1e6) + " ms, p99 "
+						+ format(timer.getPercentileNanos(0.99) / 1e6) + " ms, max "
+						+ format(timer.maxNanos.get() / 1e6) + " ms");
+			}
+		}
+	}
+
+	/**
+	 * Writes the totals and per stage latencies as a JSON object. Stage
+	 * percentiles are the upper bounds of power of two buckets.
+	 */
+	public void writeSummary(File file) throws IOException {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"elapsedMillis\": ").append(getElapsedMillis()).append(",\n");
+		json.append("  \"entries\": ").append(getEntries()).append(",\n");
+		json.append("  \"entriesPerSecond\": ").append(format(getEntriesPerSecond())).append(",\n");
+		json.append("  \"bytesIn\": ").append(getBytesIn()).append(",\n");
+		json.append("  \"bytesOut\": ").append(getBytesOut()).append(",\n");
+		json.append("  \"compressionRatio\": ").append(format(getCompressionRatio())).append(",\n");
+		json.append("  \"gcCount\": ").append(getGCCount()).append(",\n");
+		json.append("  \"gcMillis\": ").append(getGCMillis()).append(",\n");
+		json.append("  \"stages\": {");
+		String separator = "\n";
+		for (Map.Entry<Stage, Timer> entry : timers.entrySet()) {
+			Timer timer = entry.getValue();
+			json.append(separator).append("    \"").append(entry.getKey().getName()).append("\": {");
+			json.append("\"count\": ").append(timer.count.get());
+			json.append(", \"totalMillis\": ").append(format(timer.totalNanos.get() / 1e6));
+			json.append(", \"meanMillis\": ").append(format(timer.getMeanNanos() / 1e6));
+			json.append(", \"p50Millis\": ").append(format(timer.getPercentileNanos(0.5) / 1e6));
+			json.append(", \"p99Millis\": ").append(format(timer.getPercentileNanos(0.99) / 1e6));
+			json.append(", \"maxMillis\": ").append(format(timer.maxNanos.get() / 1e6)).append("}");
+			separator = ",\n";
+		}
+		json.append("\n  }\n}\n");
+
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(json.toString());
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.US, "%.3f", value);
+	}
+}
@@ -0,0 +1,39 @@
+package packer;
+
+import java.util.Map;
+
+/**
+ * What {@link BuildMetrics} shows through JMX while a build runs, stage maps
+ * are keyed by the lower case stage name
+ */
+public interface BuildMetricsMXBean {
+	public long getElapsedMillis();
+
+	/** @return Entries written to the pak so far */
+	public long getEntries();
+
+	public double getEntriesPerSecond();
+
+	/** @return Bytes of source PNGs read */
+	public long getBytesIn();
+
+	/** @return Bytes of entries written to the pak */
+	public long getBytesOut();
+
+	/** @return GX texture bytes per compressed byte of converted entries */
+	public double getCompressionRatio();
+
+	/** @return Collections since the build started */
+	public long getGCCount();
+
+	/** @return Time spent collecting since the build started */
+	public long getGCMillis();
+
+	public Map<String, Long> getStageCounts();
+
+	public Map<String, Double> getStageTotalMillis();
+
+	public Map<String, Double> getStageMeanMillis();
+
+	public Map<String, Double> getStageP99Millis();
+}
@@ -0,0 +1,370 @@
+package packer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang.StringUtils;
+
+import util.Log;
+
+/**
+ * Compresses converted GX textures for the pak. One or more settings
+ * (framing, Deflater level and strategy) are tried and the smallest result
+ * wins, optionally falling back to storing the texture as is when
+ * compression doesn't help.
+ *
+ * The choice is recorded in the top bits of the entry's gx_fmt byte:
+ * {@link #FLAG_STORED} for uncompressed data, {@link #FLAG_RAW_DEFLATE} for
+ * deflate without gzip framing, neither for gzip (the original format).
+ *
+ * Safe to use from several converter threads at once.
+ */
+public class Compressor {
+
+	/** gx_fmt flag: texture is stored uncompressed */
+	public static final int	FLAG_STORED			= 0x80;
+	/** gx_fmt flag: texture is raw deflate data, no gzip header/trailer */
+	public static final int	FLAG_RAW_DEFLATE	= 0x40;
+
+	public enum Framing {
+		GZIP, DEFLATE
+	}
+
+	/**
+	 * A single way of compressing a texture
+	 */
+	public static class Setting {
+		private Framing	framing;
+		private int		level;
+		private int		strategy;
+
+		public Setting(Framing framing, int level, int strategy) {
+			this.framing = framing;
+			this.level = level;
+			this.strategy = strategy;
+		}
+
+		/**
+		 * Parses "framing[:level[:strategy]]", e.g. "gzip", "deflate:9" or
+		 * "deflate:9:filtered". Strategy is one of default, filtered or
+		 * huffman.
+		 */
+		public static Setting parse(String spec) {
+			String[] parts = StringUtils.split(spec, ':');
+			if (parts.length < 1 || parts.length > 3) {
+				throw new IllegalArgumentException("Invalid compression setting: " + spec);
+			}
+			Framing framing;
+			if (parts[0].equalsIgnoreCase("gzip")) {
+				framing = Framing.GZIP;
+			} else if (parts[0].equalsIgnoreCase("deflate")) {
+				framing = Framing.DEFLATE;
+			} else {
+				throw new IllegalArgumentException("Unknown compression framing: " + parts[0]);
+			}
+			int level = Deflater.DEFAULT_COMPRESSION;
+			if (parts.length > 1) {
+				try {
+					level = Integer.parseInt(parts[1]);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid compression level: " + parts[1]);
+				}
+				if (level < 0 || level > 9) {
+					throw new IllegalArgumentException("Compression level must be 0-9: " + parts[1]);
+				}
+			}
+			int strategy = Deflater.DEFAULT_STRATEGY;
+			if (parts.length > 2) {
+				if (parts[2].equalsIgnoreCase("filtered")) {
+					strategy = Deflater.FILTERED;
+				} else if (parts[2].equalsIgnoreCase("huffman")) {
+					strategy = Deflater.HUFFMAN_ONLY;
+				} else if (!parts[2].equalsIgnoreCase("default")) {
+					throw new IllegalArgumentException("Unknown compression strategy: " + parts[2]);
+				}
+			}
+			return new Setting(framing, level, strategy);
+		}
+
+		public Framing getFraming() {
+			return framing;
+		}
+
+		public int getLevel() {
+			return level;
+		}
+
+		public int getStrategy() {
+			return strategy;
+		}
+
+		public String toString() {
+			String str = framing.name().toLowerCase();
+			str += ":" + (level == Deflater.DEFAULT_COMPRESSION ? "default" : Integer.toString(level));
+			switch (strategy) {
+			case Deflater.FILTERED:
+				return str + ":filtered";
+			case Deflater.HUFFMAN_ONLY:
+				return str + ":huffman";
+			}
+			return str;
+		}
+	}
+
+	/**
+	 * A compressed texture and the gx_fmt flags describing it
+	 */
+	public static class Result {
+		private byte[]	data;
+		private int		flags;
+
+		public Result(byte[] data, int flags) {
+			this.data = data;
+			this.flags = flags;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+
+		public int getFlags() {
+			return flags;
+		}
+	}
+
+	private List<Setting>		settings;
+	private boolean				storeIfNotSmaller;
+	private ExecutorService		executor	= null;
+	// How often each setting won, and how often nothing beat storing
+	private AtomicIntegerArray	wins;
+	private AtomicInteger		numStored	= new AtomicInteger(0);
+
+	/**
+	 * @param settings
+	 *            Settings to try, the smallest result wins (the first one on
+	 *            ties)
+	 * @param storeIfNotSmaller
+	 *            Store the texture uncompressed when no setting makes it
+	 *            smaller
+	 */
+	public Compressor(List<Setting> settings, boolean storeIfNotSmaller) {
+		if (settings.isEmpty()) {
+			throw new IllegalArgumentException("No compression settings");
+		}
+		this.settings = new ArrayList<Setting>(settings);
+		this.storeIfNotSmaller = storeIfNotSmaller;
+		this.wins = new AtomicIntegerArray(settings.size());
+	}
+
+	/**
+	 * @return gzip with the default level, what every pak used to contain
+	 */
+	public static Compressor getDefault() {
+		return new Compressor(Collections.singletonList(new Setting(Framing.GZIP, Deflater.DEFAULT_COMPRESSION,
+				Deflater.DEFAULT_STRATEGY)), false);
+	}
+
+	/**
+	 * @param executor
+	 *            Runs the settings in parallel when there is more than one,
+	 *            null to try them one after the other
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return The number of compressed copies that exist at once while
+	 *         compressing one texture
+	 */
+	public int getNumSettings() {
+		return settings.size();
+	}
+
+	public Result compress(final byte[] data) throws IOException {
+		byte[][] results = new byte[settings.size()][];
+		if (executor != null && settings.size() > 1) {
+			List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+			for (final Setting setting : settings) {
+				futures.add(executor.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						return compress(data, setting);
+					}
+				}));
+			}
+			try {
+				for (int i = 0; i < results.length; i++) {
+					results[i] = futures.get(i).get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while compressing");
+			} catch (ExecutionException e) {
+				throw new IOException("Failed to compress: " + e.getCause());
+			}
+		} else {
+			for (int i = 0; i < results.length; i++) {
+				results[i] = compress(data, settings.get(i));
+			}
+		}
+
+		int best = getBest(results);
+		if (storeIfNotSmaller && results[best].length >= data.length) {
+			numStored.incrementAndGet();
+			return new Result(data, FLAG_STORED);
+		}
+		return win(results, best);
+	}
+
+	/**
+	 * Starts compressing a texture that is handed over a piece at a time, so
+	 * it never has to exist in one piece
+	 */
+	public Stream newStream() throws IOException {
+		return new Stream();
+	}
+
+	/**
+	 * Compresses with every setting at once as the pieces come in (one after
+	 * the other, there is not enough work in a piece to spread it over the
+	 * executor).
+	 */
+	public class Stream {
+		private ByteArrayOutputStream[]	outputs;
+		private DeflaterOutputStream[]	streams;
+		private long					length;
+
+		private Stream() throws IOException {
+			outputs = new ByteArrayOutputStream[settings.size()];
+			streams = new DeflaterOutputStream[settings.size()];
+			for (int i = 0; i < streams.length; i++) {
+				outputs[i] = new ByteArrayOutputStream();
+				streams[i] = open(outputs[i], settings.get(i));
+			}
+		}
+
+		public void write(byte[] data, int offset, int length) throws IOException {
+			for (DeflaterOutputStream stream : streams) {
+				stream.write(data, offset, length);
+			}
+			this.length += length;
+		}
+
+		/**
+		 * @return The smallest result, or null if the texture should be stored
+		 *         uncompressed, the caller has to {@link Compressor#compress(byte[])
+		 *         compress} the whole texture then
+		 */
+		public Result finish() throws IOException {
+			byte[][] results = new byte[streams.length][];
+			for (int i = 0; i < streams.length; i++) {
+				streams[i].close();
+				results[i] = outputs[i].toByteArray();
+				outputs[i] = null;
+			}
+			int best = getBest(results);
+			if (storeIfNotSmaller && results[best].length >= length) {
+				return null;
+			}
+			return win(results, best);
+		}
+
+		/**
+		 * Ends the Deflaters of a stream that won't be finished, e.g. because
+		 * decoding failed part way, so their native memory is freed now
+		 * rather than on finalization. Closing the streams only flushes the
+		 * last block, the input is deflated as it is written. Does nothing
+		 * after {@link #finish()}.
+		 */
+		public void abort() {
+			for (int i = 0; i < streams.length; i++) {
+				if (outputs[i] != null) {
+					try {
+						streams[i].close();
+					} catch (IOException e) {
+						// Only the Deflater matters, the output is dropped
+					}
+					outputs[i] = null;
+				}
+			}
+		}
+	}
+
+	private static int getBest(byte[][] results) {
+		int best = 0;
+		for (int i = 1; i < results.length; i++) {
+			if (results[i].length < results[best].length) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	private Result win(byte[][] results, int best) {
+		wins.incrementAndGet(best);
+		return new Result(results[best], settings.get(best).getFraming() == Framing.DEFLATE ? FLAG_RAW_DEFLATE : 0);
+	}
+
+	private static byte[] compress(byte[] data, Setting setting) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DeflaterOutputStream out = open(bos, setting);
+		out.write(data);
+		out.close();
+		return bos.toByteArray();
+	}
+
+	private static DeflaterOutputStream open(OutputStream out, final Setting setting) throws IOException {
+		if (setting.getFraming() == Framing.GZIP) {
+			return new GZIPOutputStream(out) {
+				{
+					def.setLevel(setting.getLevel());
+					def.setStrategy(setting.getStrategy());
+				}
+			};
+		}
+		final Deflater deflater = new Deflater(setting.getLevel(), true);
+		deflater.setStrategy(setting.getStrategy());
+		return new DeflaterOutputStream(out, deflater, 64 * 1024) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					// Only the default Deflater is ended by the stream
+					deflater.end();
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return The settings in the order they are tried, e.g.
+	 *         "deflate:9,gzip:default+store"
+	 */
+	public String toString() {
+		return StringUtils.join(settings, ',') + (storeIfNotSmaller ? "+store" : "");
+	}
+
+	public void printStats() {
+		for (int i = 0; i < settings.size(); i++) {
+			Log.info("Compressed with " + settings.get(i) + ": " + wins.get(i));
+		}
+		if (storeIfNotSmaller) {
+			Log.info("Stored uncompressed: " + numStored.get());
+		}
+	}
+}
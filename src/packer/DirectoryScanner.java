@@ -0,0 +1,193 @@
+package packer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import util.Log;
+
+/**
+ * Finds the files that might be textures under the texture directory. Every
+ * directory is listed on a pool of threads as soon as its parent has been,
+ * so deep trees on slow or network storage are listed in parallel, but the
+ * files are handed out in the order a sequential depth first walk finds
+ * them, which keeps the pak the same from build to build.
+ *
+ * Whether a file is a texture candidate follows from its name alone, and
+ * candidates are stat'ed for their size. Other entries are stat'ed to find
+ * the subdirectories, except names ending in an extension only files have
+ * in a texture dump (other PNGs, text, thumbnails), so the pictures and
+ * notes next to the textures cost no stat. A directory named like one of
+ * those files (say "shots.png") is taken for a file and not walked.
+ * Symbolic links are followed.
+ */
+public class DirectoryScanner {
+
+	/** Receives the files found, in walk order, on the thread scanning */
+	public interface FileHandler {
+		public void fileFound(File file);
+	}
+
+	/** A directory's entries in listing order, each a file or a subdirectory */
+	private static class Listing {
+		// The file, null where the entry is a subdirectory
+		List<File>				files			= new ArrayList<File>();
+		// The subdirectory's listing, null where the entry is a file
+		List<Future<Listing>>	subdirectories	= new ArrayList<Future<Listing>>();
+	}
+
+	// Extensions of the other files found in texture dumps, lower case
+	private static final String[]	FILE_EXTENSIONS	= { ".png", ".txt", ".ini", ".htc", ".dat", ".db", ".jpg", ".bmp",
+			".dds", ".zip", ".7z", ".rar" };
+
+	private int					threadCount;
+	private ExecutorService		pool;
+	private volatile boolean	cancelled	= false;
+	private int					numFound;
+
+	/**
+	 * @param threadCount
+	 *            Number of directories listed at once
+	 */
+	public DirectoryScanner(int threadCount) {
+		this.threadCount = Math.max(threadCount, 1);
+	}
+
+	/** @return Whether the file name alone makes the file a texture candidate */
+	public static boolean isCandidate(String name) {
+		return name.endsWith(".png") && name.indexOf('#') >= 0;
+	}
+
+	/**
+	 * @return Whether the name is one of the other files of a texture dump,
+	 *         which isn't worth a stat. Anything else may be a directory.
+	 */
+	static boolean isOtherFile(String name) {
+		String lower = name.toLowerCase(Locale.ROOT);
+		for (String extension : FILE_EXTENSIONS) {
+			if (lower.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Walks root and passes every non-empty candidate file to the handler
+	 *
+	 * @return false if the scan was cancelled
+	 */
+	public boolean scan(File root, FileHandler handler) throws InterruptedException {
+		numFound = 0;
+		pool = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			private AtomicInteger	count	= new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Scanner Thread " + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			if (root.isDirectory()) {
+				emit(list(root.toPath()).get(), handler);
+			} else if (root.isFile() && isCandidate(root.getName()) && root.length() > 0) {
+				found(root, handler);
+			}
+		} catch (ExecutionException e) {
+			// Listing catches its own I/O errors
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return !cancelled;
+	}
+
+	/** Stops the scan from any thread, {@link #scan(File, FileHandler)} returns false */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/** @return The files passed to the handler by the last scan */
+	public int getNumFound() {
+		return numFound;
+	}
+
+	private Future<Listing> list(final Path directory) {
+		return pool.submit(new Callable<Listing>() {
+
+			@Override
+			public Listing call() {
+				Listing listing = new Listing();
+				if (cancelled) {
+					return listing;
+				}
+				try {
+					DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+					try {
+						for (Path entry : stream) {
+							String name = entry.getFileName().toString();
+							boolean candidate = isCandidate(name);
+							if (!candidate && isOtherFile(name)) {
+								continue;
+							}
+							BasicFileAttributes attributes;
+							try {
+								attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+							} catch (IOException e) {
+								// Dangling link or gone since the listing
+								continue;
+							}
+							if (attributes.isDirectory()) {
+								listing.files.add(null);
+								listing.subdirectories.add(list(entry));
+							} else if (candidate && attributes.isRegularFile() && attributes.size() > 0) {
+								listing.files.add(entry.toFile());
+								listing.subdirectories.add(null);
+							}
+						}
+					} finally {
+						stream.close();
+					}
+				} catch (IOException e) {
+					Log.info("Can't list " + directory + ": " + e.getMessage());
+				} catch (DirectoryIteratorException e) {
+					Log.info("Can't list " + directory + ": " + e.getCause().getMessage());
+				}
+				return listing;
+			}
+		});
+	}
+
+	/** Hands out a listing's files, descending into subdirectories in place */
+	private void emit(Listing listing, FileHandler handler) throws InterruptedException, ExecutionException {
+		for (int i = 0; i < listing.files.size() && !cancelled; i++) {
+			File file = listing.files.get(i);
+			if (file != null) {
+				found(file, handler);
+			} else {
+				emit(listing.subdirectories.get(i).get(), handler);
+			}
+		}
+	}
+
+	private void found(File file, FileHandler handler) {
+		numFound++;
+		handler.fileFound(file);
+	}
+}
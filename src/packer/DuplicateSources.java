@@ -0,0 +1,62 @@
+package packer;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds entries whose source files are byte for byte identical to those of
+ * an earlier entry, before anything is decoded, so only the first one is
+ * converted and the rest just point at it in the LUT.
+ *
+ * The same files only make the same entry if they are used the same way, so
+ * the key also holds the digest of the alpha file on its own (the primary
+ * and alpha bytes could be split differently) and whether alpha comes from
+ * the blue channel.
+ *
+ * Safe to use from several converter threads at once.
+ */
+public class DuplicateSources {
+	// Sequence numbers, the entries themselves are dropped once written
+	private ConcurrentHashMap<String, Integer>	firstByDigest	= new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Registers the entry under its source digest.
+	 *
+	 * @return The sequence number of an entry earlier in the pak with the same
+	 *         sources, or -1 if this entry has to be converted itself
+	 * @throws IOException
+	 *             If the alpha file can't be read for hashing
+	 */
+	public int register(ArchiveEntry entry) throws IOException {
+		String key = getKey(entry);
+		Integer sequence = entry.getSequence();
+		while (true) {
+			Integer first = firstByDigest.putIfAbsent(key, sequence);
+			if (first == null) {
+				return -1;
+			}
+			// Only an earlier entry is guaranteed to be written before us
+			if (first < sequence) {
+				return first;
+			}
+			if (firstByDigest.replace(key, first, sequence)) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * @return The source digest, the alpha file's digest if there is one and
+	 *         the blue alpha flag
+	 */
+	static String getKey(ArchiveEntry entry) throws IOException {
+		StringBuilder key = new StringBuilder(entry.getSourceStamp().getDigest());
+		if (entry.getAlphaFile() != null) {
+			key.append('/').append(SourceStamp.digest(entry.getAlphaFile(), null));
+		}
+		if (entry.getTextureName().isBlueAlpha()) {
+			key.append("/B");
+		}
+		return key.toString();
+	}
+}
@@ -0,0 +1,395 @@
+package packer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link ArchiveEntry#process()} (PNG decode, GX conversion and
+ * compression) on a pool of worker threads and hands the finished entries
+ * back to a single writer thread in their original order, so the resulting
+ * pak is identical to one built sequentially.
+ *
+ * The writer is the thread calling {@link #run(List, EntryHandler)}, it is
+ * the only one that ever touches the output file and the lookup table.
+ *
+ * Memory is bounded by a byte budget shared by the entries being converted
+ * (their {@link ArchiveEntry#estimateMemoryUsage() estimated} working set)
+ * and the compressed entries waiting for the writer. A worker blocks before
+ * decoding while the budget is used up, except for the entry the writer is
+ * waiting for, which is always let through so the pipeline can't stall. Peak
+ * heap is therefore about the budget, or one texture if it is larger.
+ *
+ * Entries can be added while the pipeline runs through an {@link EntryQueue},
+ * so conversion starts before the texture directory is fully scanned.
+ *
+ * The first entry that fails stops the pipeline, unless it is set to
+ * {@link #setContinueOnError(boolean) continue on error}: failed entries are
+ * then handed to the writer in order like the others, to be left out.
+ */
+public class EntryPipeline {
+
+	/** Default in-flight byte budget */
+	public static final long	DEFAULT_MEMORY_BUDGET	= 256L * 1024 * 1024;
+
+	/**
+	 * Receives converted entries on the writer thread, in list order. The
+	 * entry's texture is released once this returns. total is -1 while
+	 * entries are still being added. An IOException stops the pipeline and
+	 * is thrown out of {@link EntryPipeline#run(EntryQueue, EntryHandler)}.
+	 */
+	public interface EntryHandler {
+		public void entryProcessed(ArchiveEntry entry, int index, int total) throws IOException;
+
+		/** Gets the entries that failed instead, when continuing on error */
+		public void entryFailed(ArchiveEntry entry, int index, int total);
+	}
+
+	/**
+	 * Entries to process, in pak order. The pipeline works on them as they
+	 * are added and finishes once the queue is closed and all are written.
+	 */
+	public static class EntryQueue {
+		private List<ArchiveEntry>	entries	= new ArrayList<ArchiveEntry>();
+		private boolean				closed	= false;
+
+		public EntryQueue() {
+		}
+
+		public EntryQueue(List<ArchiveEntry> entries) {
+			this.entries.addAll(entries);
+			closed = true;
+		}
+
+		public synchronized void add(ArchiveEntry entry) {
+			entries.add(entry);
+			notifyAll();
+		}
+
+		/** No more entries will be added */
+		public synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+
+		public synchronized int size() {
+			return entries.size();
+		}
+
+		/** @return A copy of the entries added so far */
+		public synchronized List<ArchiveEntry> getEntries() {
+			return new ArrayList<ArchiveEntry>(entries);
+		}
+
+		/** @return The number of entries once closed, else -1 */
+		public synchronized int getTotal() {
+			return closed ? entries.size() : -1;
+		}
+
+		/**
+		 * Drops the queue's reference to an entry that has been written, so
+		 * only the pak writer's {@link EntryTable} row of it is kept
+		 */
+		synchronized void release(int index) {
+			entries.set(index, null);
+		}
+
+		/**
+		 * Blocks until the entry at index is added
+		 *
+		 * @return The entry, or null if the queue was closed without it (or
+		 *         it was released)
+		 */
+		synchronized ArchiveEntry get(int index) throws InterruptedException {
+			while (!closed && index >= entries.size()) {
+				wait();
+			}
+			return index < entries.size() ? entries.get(index) : null;
+		}
+	}
+
+	private int							threadCount;
+	private long						memoryBudget;
+	private ArchiveEntry				failedEntry	= null;
+	private int							failedIndex;
+	private boolean						continueOnError	= false;
+	private int							numFailed;
+
+	// Shared between the workers and the writer, guarded by "this"
+	private Map<Integer, ArchiveEntry>	done;
+	// Indexes in done that failed, when continuing on error
+	private Set<Integer>				failures;
+	private int							nextToWrite;
+	private long						inFlightBytes;
+	private long						peakInFlightBytes;
+	private boolean						aborted;
+	private boolean						cancelled	= false;
+
+	/**
+	 * @param threadCount
+	 *            number of conversion threads, values below 1 mean one per
+	 *            available processor
+	 */
+	public EntryPipeline(int threadCount) {
+		this(threadCount, DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * @param threadCount
+	 *            number of conversion threads, values below 1 mean one per
+	 *            available processor
+	 * @param memoryBudget
+	 *            bytes that may be held by entries in flight
+	 */
+	public EntryPipeline(int threadCount, long memoryBudget) {
+		if (threadCount < 1) {
+			threadCount = Runtime.getRuntime().availableProcessors();
+		}
+		this.threadCount = threadCount;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @param continueOnError
+	 *            Hand failed entries to {@link EntryHandler#entryFailed} and
+	 *            go on instead of stopping
+	 */
+	public void setContinueOnError(boolean continueOnError) {
+		this.continueOnError = continueOnError;
+	}
+
+	/**
+	 * Processes all entries and passes them to the handler in order.
+	 *
+	 * @return false if an entry failed to process, see
+	 *         {@link #getFailedEntry()}
+	 * @throws IOException
+	 *             If the handler failed to write an entry
+	 */
+	public boolean run(List<ArchiveEntry> entries, EntryHandler handler) throws IOException {
+		return run(new EntryQueue(entries), handler);
+	}
+
+	/**
+	 * Processes the entries as they are added to the queue and passes them to
+	 * the handler in order, until the queue is closed.
+	 *
+	 * @return false if an entry failed to process, see
+	 *         {@link #getFailedEntry()}
+	 * @throws IOException
+	 *             If the handler failed to write an entry
+	 */
+	public boolean run(final EntryQueue entries, EntryHandler handler) throws IOException {
+		final AtomicInteger next = new AtomicInteger(0);
+		done = new HashMap<Integer, ArchiveEntry>();
+		failures = new HashSet<Integer>();
+		numFailed = 0;
+		nextToWrite = 0;
+		inFlightBytes = 0;
+		peakInFlightBytes = 0;
+		aborted = cancelled;
+		failedEntry = null;
+		failedIndex = Integer.MAX_VALUE;
+
+		ExecutorService pool = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			private AtomicInteger	count	= new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Converter Thread " + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		for (int i = 0; i < threadCount; i++) {
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					int index;
+					ArchiveEntry entry;
+					try {
+						while ((entry = entries.get(index = next.getAndIncrement())) != null) {
+							long estimate = entry.estimateMemoryUsage();
+							if (!acquire(index, estimate)) {
+								return;
+							}
+							boolean ok;
+							try {
+								ok = entry.process();
+							} catch (Throwable t) {
+								ok = false;
+								if (entry.getMeta() != null) {
+									entry.getMeta().setErrorMsg("Unexpected error: " + t);
+								}
+							}
+							finished(index, entry, ok, estimate);
+							if (!ok && !continueOnError) {
+								return;
+							}
+						}
+					} catch (InterruptedException e) {
+						// Stopped by the writer
+					}
+				}
+			});
+		}
+		pool.shutdown();
+
+		boolean success = true;
+		try {
+			for (int i = 0; entries.get(i) != null; i++) {
+				ArchiveEntry entry = takeNext(i);
+				if (entry == null) {
+					success = false;
+					break;
+				}
+				if (takeFailure(i)) {
+					handler.entryFailed(entry, i, entries.getTotal());
+				} else {
+					handler.entryProcessed(entry, i, entries.getTotal());
+					entry.releaseTexture();
+				}
+				entries.release(i);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			success = false;
+		} catch (IOException e) {
+			success = false;
+			throw e;
+		} finally {
+			if (!success) {
+				abort();
+				pool.shutdownNow();
+			}
+		}
+		return success;
+	}
+
+	/**
+	 * Blocks a worker until its working set fits in the budget, the entry the
+	 * writer needs next never waits
+	 */
+	private synchronized boolean acquire(int index, long bytes) {
+		while (!aborted && index != nextToWrite && inFlightBytes + bytes > memoryBudget) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		if (aborted) {
+			return false;
+		}
+		inFlightBytes += bytes;
+		peakInFlightBytes = Math.max(peakInFlightBytes, inFlightBytes);
+		return true;
+	}
+
+	/** Swaps the working set estimate for the size of the compressed entry */
+	private synchronized void finished(int index, ArchiveEntry entry, boolean ok, long estimate) {
+		inFlightBytes -= estimate;
+		if (aborted) {
+			return;
+		}
+		if (ok) {
+			inFlightBytes += getHeldBytes(entry);
+			done.put(index, entry);
+		} else if (continueOnError) {
+			entry.releaseTexture();
+			failures.add(index);
+			done.put(index, entry);
+		} else if (index < failedIndex) {
+			// Report the first failure in list order, like a sequential run
+			failedEntry = entry;
+			failedIndex = index;
+			aborted = true;
+		}
+		notifyAll();
+	}
+
+	/** Blocks the writer until the entry at index is ready, null on failure */
+	private synchronized ArchiveEntry takeNext(int index) throws InterruptedException {
+		while (!aborted && !done.containsKey(index)) {
+			wait();
+		}
+		if (aborted) {
+			return null;
+		}
+		ArchiveEntry entry = done.remove(index);
+		inFlightBytes -= getHeldBytes(entry);
+		nextToWrite = index + 1;
+		notifyAll();
+		return entry;
+	}
+
+	/** @return Whether the entry the writer took at index had failed */
+	private synchronized boolean takeFailure(int index) {
+		if (failures.remove(index)) {
+			numFailed++;
+			return true;
+		}
+		return false;
+	}
+
+	private static long getHeldBytes(ArchiveEntry entry) {
+		return entry.getGXTexture() != null ? entry.getGXTexture().length : 0;
+	}
+
+	private synchronized void abort() {
+		aborted = true;
+		notifyAll();
+	}
+
+	/**
+	 * Stops the pipeline from any thread: entries being converted are
+	 * finished but not written and {@link #run(List, EntryHandler)} returns
+	 * false with no failed entry. A later run stops straight away.
+	 */
+	public synchronized void cancel() {
+		cancelled = true;
+		abort();
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return The entry that stopped the pipeline, or null
+	 */
+	public synchronized ArchiveEntry getFailedEntry() {
+		return failedEntry;
+	}
+
+	/**
+	 * @return The entries handed to {@link EntryHandler#entryFailed} during
+	 *         the last run
+	 */
+	public synchronized int getNumFailed() {
+		return numFailed;
+	}
+
+	/**
+	 * @return The most bytes that were in flight at once during the last run
+	 */
+	public synchronized long getPeakInFlightBytes() {
+		return peakInFlightBytes;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+}
@@ -0,0 +1,183 @@
+package packer;
+
+import java.util.Arrays;
+
+/**
+ * What the pak writer keeps of every entry once it is written, in columns of
+ * primitives indexed by the entry's id ({@link ArchiveEntry#getSequence()}):
+ * CRC64, offset, length and the entry header, plus the SHA-1 of the stored
+ * entry for finding identical entries. About 50 bytes an entry, so the
+ * {@link ArchiveEntry} objects and their meta data can go as soon as they
+ * are written, even for a pak of a million textures.
+ *
+ * Ids don't have to be dense, entries that were left out just leave a gap.
+ */
+public class EntryTable {
+	/** Bytes of an entry digest, SHA-1 */
+	public static final int	DIGEST_LENGTH		= 20;
+
+	private static final int	INITIAL_CAPACITY	= 1024;
+
+	private long[]				crc64s				= new long[INITIAL_CAPACITY];
+	// u32 pak offsets
+	private int[]				offsets				= new int[INITIAL_CAPACITY];
+	// Header included, 0 where there is no entry
+	private int[]				lengths				= new int[INITIAL_CAPACITY];
+	// width / 4, height / 4, gx_fmt and level count, a byte each
+	private int[]				headers				= new int[INITIAL_CAPACITY];
+	private int					size				= 0;
+
+	// Digests of the entries with their own data, and an open addressing
+	// hash table of their ids + 1 keyed by the digest
+	private byte[]				digests;
+	private int[]				digestSlots;
+	private int					numDigests			= 0;
+
+	/**
+	 * @param id
+	 *            Must not be in the table yet
+	 * @param offset
+	 *            Where the entry's data is, a previous entry's for duplicates
+	 * @param length
+	 *            Bytes of the entry in the pak, header included
+	 */
+	public void add(int id, ArchiveEntryMeta meta, long offset, int length) {
+		if (contains(id)) {
+			throw new IllegalArgumentException("Entry " + id + " added twice");
+		}
+		if (id >= lengths.length) {
+			int capacity = Math.max(lengths.length * 2, id + 1);
+			crc64s = Arrays.copyOf(crc64s, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			headers = Arrays.copyOf(headers, capacity);
+		}
+		crc64s[id] = meta.getCRC64();
+		offsets[id] = (int) offset;
+		lengths[id] = length;
+		headers[id] = (meta.getWidth() / 4 & 0xFF) | (meta.getHeight() / 4 & 0xFF) << 8
+				| (meta.getFormatByte() & 0xFF) << 16 | (meta.getMipLevels() & 0xFF) << 24;
+		size++;
+	}
+
+	public boolean contains(int id) {
+		return id >= 0 && id < lengths.length && lengths[id] != 0;
+	}
+
+	/** @return The number of entries in the table */
+	public int size() {
+		return size;
+	}
+
+	public long getCRC64(int id) {
+		return crc64s[id];
+	}
+
+	public long getOffset(int id) {
+		return offsets[id] & 0xFFFFFFFFL;
+	}
+
+	public int getLength(int id) {
+		return lengths[id];
+	}
+
+	/** @return The width in the entry header, rounded down to whole tiles */
+	public int getWidth(int id) {
+		return (headers[id] & 0xFF) * 4;
+	}
+
+	public int getHeight(int id) {
+		return (headers[id] >>> 8 & 0xFF) * 4;
+	}
+
+	/** @return The gx_fmt byte, see {@link ArchiveEntryMeta#getFormatByte()} */
+	public int getFormatByte(int id) {
+		return headers[id] >>> 16 & 0xFF;
+	}
+
+	public int getMipLevels(int id) {
+		return headers[id] >>> 24;
+	}
+
+	/**
+	 * Remembers that the data of entry id has this digest
+	 *
+	 * @param digest
+	 *            {@link #DIGEST_LENGTH} bytes
+	 */
+	public void putDigest(int id, byte[] digest) {
+		if (digestSlots == null || (numDigests + 1) * 2 > digestSlots.length) {
+			rehash(digestSlots == null ? INITIAL_CAPACITY * 2 : digestSlots.length * 2);
+		}
+		if (digests.length < (id + 1) * DIGEST_LENGTH) {
+			digests = Arrays.copyOf(digests, Math.max(digests.length * 2, (id + 1) * DIGEST_LENGTH));
+		}
+		System.arraycopy(digest, 0, digests, id * DIGEST_LENGTH, DIGEST_LENGTH);
+		int mask = digestSlots.length - 1;
+		int slot = hash(digest, 0) & mask;
+		while (digestSlots[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		digestSlots[slot] = id + 1;
+		numDigests++;
+	}
+
+	/** @return The id of an entry whose data has this digest, or -1 */
+	public int findDigest(byte[] digest) {
+		if (digestSlots == null) {
+			return -1;
+		}
+		int mask = digestSlots.length - 1;
+		for (int slot = hash(digest, 0) & mask; digestSlots[slot] != 0; slot = (slot + 1) & mask) {
+			int id = digestSlots[slot] - 1;
+			if (matches(id, digest)) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	private boolean matches(int id, byte[] digest) {
+		int offset = id * DIGEST_LENGTH;
+		for (int i = 0; i < DIGEST_LENGTH; i++) {
+			if (digests[offset + i] != digest[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash(int capacity) {
+		if (digests == null) {
+			digests = new byte[lengths.length * DIGEST_LENGTH];
+		}
+		int[] slots = new int[capacity];
+		if (digestSlots != null) {
+			for (int entry : digestSlots) {
+				if (entry != 0) {
+					int slot = hash(digests, (entry - 1) * DIGEST_LENGTH) & (capacity - 1);
+					while (slots[slot] != 0) {
+						slot = (slot + 1) & (capacity - 1);
+					}
+					slots[slot] = entry;
+				}
+			}
+		}
+		digestSlots = slots;
+	}
+
+	/** SHA-1 bytes are evenly spread, the first four make a good hash */
+	private static int hash(byte[] digest, int offset) {
+		return (digest[offset] & 0xFF) << 24 | (digest[offset + 1] & 0xFF) << 16 | (digest[offset + 2] & 0xFF) << 8
+				| (digest[offset + 3] & 0xFF);
+	}
+
+	/** @return Bytes held by the table's columns */
+	public long getMemoryUsage() {
+		long bytes = lengths.length * (8L + 4 + 4 + 4);
+		if (digestSlots != null) {
+			bytes += digests.length + digestSlots.length * 4L;
+		}
+		return bytes;
+	}
+}
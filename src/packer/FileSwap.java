@@ -0,0 +1,107 @@
+package packer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import util.Log;
+
+/**
+ * Puts a finished file in place of the one it replaces, in one atomic move
+ * where the file system supports it. The replaced file is kept as
+ * "name.bak" until the swap is committed, so that a pak and its manifest can
+ * be put back together when the second of the two fails to go in place.
+ */
+final class FileSwap {
+
+	private final Path		target;
+	private final Path		backup;
+	// Whether there was a file to replace, kept as the backup
+	private final boolean	replaced;
+
+	private FileSwap(Path target, Path backup, boolean replaced) {
+		this.target = target;
+		this.backup = backup;
+		this.replaced = replaced;
+	}
+
+	/**
+	 * Moves source over target, keeping the file it replaces as a backup
+	 *
+	 * @throws IOException
+	 *             If the move failed, target is then left as it was
+	 */
+	static FileSwap replace(File source, File target) throws IOException {
+		Path from = source.toPath();
+		Path to = target.toPath();
+		Path backup = new File(target.getPath() + ".bak").toPath();
+		Files.deleteIfExists(backup);
+		boolean replaced = Files.exists(to);
+		boolean linked = false;
+		if (replaced) {
+			linked = link(backup, to);
+			if (!linked) {
+				// No hard links on this file system, the old file has to make
+				// room for the new one
+				Files.move(to, backup);
+			}
+		}
+		FileSwap swap = new FileSwap(to, backup, replaced);
+		try {
+			move(from, to);
+		} catch (IOException e) {
+			if (linked) {
+				swap.commit();
+			} else if (replaced) {
+				swap.rollback();
+			}
+			throw e;
+		}
+		return swap;
+	}
+
+	/** Drops the backup of the replaced file */
+	void commit() {
+		try {
+			Files.deleteIfExists(backup);
+		} catch (IOException e) {
+			Log.info("Failed to delete " + backup + ": " + e.getMessage());
+		}
+	}
+
+	/** Puts the replaced file back, or removes the new one if there was none */
+	void rollback() {
+		try {
+			if (replaced) {
+				move(backup, target);
+			} else {
+				Files.deleteIfExists(target);
+			}
+		} catch (IOException e) {
+			Log.info("Failed to restore " + target + ", the previous file is " + backup + ": " + e.getMessage());
+		}
+	}
+
+	private static void move(Path from, Path to) throws IOException {
+		try {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/** @return false if the file system can't link existing under a second name */
+	private static boolean link(Path link, Path existing) {
+		try {
+			Files.createLink(link, existing);
+			return true;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
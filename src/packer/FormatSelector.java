@@ -0,0 +1,234 @@
+package packer;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import util.Log;
+
+import gx.CMPREncoder;
+import gx.ColorQuantizer;
+import gx.GXFormat;
+import gx.GXTiler;
+import gx.Palette;
+import gx.PixelSource;
+import gx.TextureAnalysis;
+
+/**
+ * Picks the GX format each texture is stored in and encodes it. With the
+ * default {@link Policy#RGBA8} everything is RGBA8. The other policies look
+ * at what each texture actually uses ({@link TextureAnalysis}) and pick the
+ * smallest format that stores it exactly, or within a maximum error per
+ * channel, e.g. I8/IA8 for grey text and RGB565 for opaque textures.
+ *
+ * When CMPR is allowed, textures that are opaque or only use 1 bit alpha
+ * become CMPR unless a lossless 4 bit format fits. When palettes are allowed,
+ * textures that quantize to 16 or 256 colours within the palette error
+ * threshold become CI4 or CI8. A format is only used for textures made of
+ * whole tiles of it.
+ *
+ * Safe to use from several converter threads at once.
+ */
+public class FormatSelector {
+
+	public enum Policy {
+		/** Always RGBA8, what every pak used to contain */
+		RGBA8,
+		/** The smallest format that stores the texture exactly */
+		LOSSLESS,
+		/** The smallest format within the maximum error */
+		MAX_ERROR
+	}
+
+	// Candidates, smallest first
+	private static final int[]	FORMATS	= { GXFormat.I4, GXFormat.CI4, GXFormat.CMPR, GXFormat.I8, GXFormat.IA4,
+			GXFormat.CI8, GXFormat.IA8, GXFormat.RGB565, GXFormat.RGB5A3 };
+
+	/**
+	 * A texture in the chosen GX format
+	 */
+	public static class Encoded {
+		private int		format;
+		private byte[]	data;
+		private int		maxError;
+		private double	rmsError;
+
+		/**
+		 * @param maxError
+		 *            Largest error of any channel, -1 if unknown
+		 * @param rmsError
+		 *            Root mean square error, -1 if unknown
+		 */
+		public Encoded(int format, byte[] data, int maxError, double rmsError) {
+			this.format = format;
+			this.data = data;
+			this.maxError = maxError;
+			this.rmsError = rmsError;
+		}
+
+		/** @return One of the {@link GXFormat} constants */
+		public int getFormat() {
+			return format;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+
+		public int getMaxError() {
+			return maxError;
+		}
+
+		public double getRMSError() {
+			return rmsError;
+		}
+	}
+
+	private Policy				policy		= Policy.RGBA8;
+	private int					maxError	= 0;
+	private boolean				allowCMPR	= false;
+	private boolean				allowCI		= false;
+	private double				maxCIError	= 0;
+	// How often each format was picked
+	private AtomicIntegerArray	counts		= new AtomicIntegerArray(16);
+
+	public void setPolicy(Policy policy) {
+		this.policy = policy;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @param maxError
+	 *            Largest difference of any channel of any pixel that
+	 *            {@link Policy#MAX_ERROR} accepts
+	 */
+	public void setMaxError(int maxError) {
+		this.maxError = maxError;
+	}
+
+	/**
+	 * @param allowCMPR
+	 *            Store opaque and 1 bit alpha textures as CMPR, which is lossy
+	 */
+	public void setAllowCMPR(boolean allowCMPR) {
+		this.allowCMPR = allowCMPR;
+	}
+
+	public boolean isAllowCMPR() {
+		return allowCMPR;
+	}
+
+	/**
+	 * @param allowCI
+	 *            Store textures that fit a 16 or 256 colour palette as CI4 or
+	 *            CI8
+	 * @param maxCIError
+	 *            Root mean square error a quantized palette may make, 0 only
+	 *            accepts exact palettes
+	 */
+	public void setAllowCI(boolean allowCI, double maxCIError) {
+		this.allowCI = allowCI;
+		this.maxCIError = maxCIError;
+	}
+
+	public boolean isAllowCI() {
+		return allowCI;
+	}
+
+	/**
+	 * @return true if every texture is stored as RGBA8, so they can be tiled
+	 *         without looking at the whole texture first
+	 */
+	public boolean isRGBA8Only() {
+		return policy == Policy.RGBA8 && !allowCMPR && !allowCI;
+	}
+
+	/**
+	 * @return Extra bytes per pixel picking the format of a texture may take
+	 *         at its peak, on top of the texture and its GX copy
+	 */
+	public int getBytesPerPixel() {
+		return allowCI ? ColorQuantizer.MAX_BYTES_PER_PIXEL : 0;
+	}
+
+	/**
+	 * @return The policy and the formats allowed, e.g. "max_error:8+cmpr"
+	 */
+	public String toString() {
+		String str = policy.name().toLowerCase();
+		if (policy == Policy.MAX_ERROR) {
+			str += ":" + maxError;
+		}
+		if (allowCMPR) {
+			str += "+cmpr";
+		}
+		if (allowCI) {
+			str += "+ci:" + maxCIError;
+		}
+		return str;
+	}
+
+	public Encoded encode(PixelSource src) {
+		Encoded encoded = null;
+		if (!isRGBA8Only()) {
+			encoded = select(src, TextureAnalysis.of(src));
+		}
+		if (encoded == null) {
+			encoded = new Encoded(GXFormat.RGBA8, GXTiler.tileRGBA8(src, null), 0, 0);
+		}
+		count(encoded.getFormat());
+		return encoded;
+	}
+
+	/** Counts a texture for {@link #printStats()} that was tiled elsewhere */
+	void count(int format) {
+		counts.incrementAndGet(format);
+	}
+
+	/** @return The first candidate that is allowed and fits, or null */
+	private Encoded select(PixelSource src, TextureAnalysis analysis) {
+		int threshold = policy == Policy.MAX_ERROR ? maxError : 0;
+		ColorQuantizer quantizer = null;
+		for (int format : FORMATS) {
+			if (!GXFormat.fitsTiles(format, src.getWidth(), src.getHeight())) {
+				continue;
+			}
+			switch (format) {
+			case GXFormat.CMPR:
+				if (allowCMPR && (analysis.isOpaque() || analysis.hasBinaryAlpha())) {
+					return new Encoded(format, CMPREncoder.encode(src, null), -1, -1);
+				}
+				break;
+			case GXFormat.CI4:
+			case GXFormat.CI8:
+				if (!allowCI) {
+					break;
+				}
+				if (quantizer == null) {
+					quantizer = new ColorQuantizer(src);
+				}
+				Palette palette = quantizer.quantize(format == GXFormat.CI4 ? 16 : 256);
+				if (maxCIError > 0 ? palette.getRMSError() <= maxCIError : palette.getMaxError() == 0) {
+					return new Encoded(format, GXTiler.tileCI(palette, format, null), palette.getMaxError(),
+							palette.getRMSError());
+				}
+				break;
+			default:
+				if (policy != Policy.RGBA8 && analysis.getMaxError(format) <= threshold) {
+					return new Encoded(format, GXTiler.tile(src, format, null), analysis.getMaxError(format), -1);
+				}
+				break;
+			}
+		}
+		return null;
+	}
+
+	public void printStats() {
+		for (int i = 0; i < counts.length(); i++) {
+			if (counts.get(i) > 0) {
+				Log.info("Stored as " + GXFormat.getName(i) + ": " + counts.get(i));
+			}
+		}
+	}
+}
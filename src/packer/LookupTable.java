@@ -0,0 +1,117 @@
+package packer;
+
+import java.util.Arrays;
+
+import util.Log;
+
+/**
+ * The pak's LUT: CRC64 keys and the offsets of their entries, kept in
+ * primitive arrays. The loader does a binary search on the keys, so they
+ * have to end up sorted as unsigned numbers and unique.
+ */
+public class LookupTable {
+	private long[]	keys;
+	private int[]	offsets;
+	private int		size	= 0;
+
+	public LookupTable() {
+		this(1024);
+	}
+
+	public LookupTable(int capacity) {
+		keys = new long[Math.max(capacity, 16)];
+		offsets = new int[keys.length];
+	}
+
+	/**
+	 * @param offset
+	 *            Offset of the entry in the pak, has to fit the LUT's 32 bit
+	 *            field
+	 */
+	public void add(long crc64, long offset) {
+		if (offset < 0 || offset > 0xFFFFFFFFL) {
+			throw new IllegalArgumentException("Entry offset doesn't fit the LUT: " + offset);
+		}
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			offsets = Arrays.copyOf(offsets, size * 2);
+		}
+		keys[size] = crc64;
+		offsets[size] = (int) offset;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getKey(int i) {
+		return keys[i];
+	}
+
+	/** @return The offset as the unsigned number it is in the pak */
+	public long getOffset(int i) {
+		return offsets[i] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Sorts the table by unsigned key and drops all but the first added entry
+	 * of every key that was added more than once.
+	 *
+	 * @return The number of entries dropped
+	 */
+	public int sort() {
+		radixSort();
+		int out = 0;
+		for (int i = 0; i < size; i++) {
+			if (out > 0 && keys[i] == keys[out - 1]) {
+				Log.info("Duplicate CRC64 " + Long.toHexString(keys[i]) + " at offset " + getOffset(i)
+						+ ", keeping the entry at offset " + getOffset(out - 1));
+				continue;
+			}
+			keys[out] = keys[i];
+			offsets[out] = offsets[i];
+			out++;
+		}
+		int dropped = size - out;
+		size = out;
+		return dropped;
+	}
+
+	/**
+	 * Stable LSD radix sort on the unsigned keys, one byte per pass. Passes
+	 * where every key has the same byte are skipped.
+	 */
+	private void radixSort() {
+		long[] srcKeys = keys, dstKeys = new long[size];
+		int[] srcOffsets = offsets, dstOffsets = new int[size];
+		int[] counts = new int[256];
+		for (int shift = 0; shift < 64; shift += 8) {
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < size; i++) {
+				counts[(int) (srcKeys[i] >>> shift) & 0xFF]++;
+			}
+			if (size == 0 || counts[(int) (srcKeys[0] >>> shift) & 0xFF] == size) {
+				continue;
+			}
+			for (int b = 0, start = 0; b < 256; b++) {
+				int count = counts[b];
+				counts[b] = start;
+				start += count;
+			}
+			for (int i = 0; i < size; i++) {
+				int dst = counts[(int) (srcKeys[i] >>> shift) & 0xFF]++;
+				dstKeys[dst] = srcKeys[i];
+				dstOffsets[dst] = srcOffsets[i];
+			}
+			long[] tmpKeys = srcKeys;
+			srcKeys = dstKeys;
+			dstKeys = tmpKeys;
+			int[] tmpOffsets = srcOffsets;
+			srcOffsets = dstOffsets;
+			dstOffsets = tmpOffsets;
+		}
+		keys = srcKeys;
+		offsets = srcOffsets;
+	}
+}
@@ -0,0 +1,107 @@
+package packer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+import gx.CMPREncoder;
+import gx.Downsampler;
+import gx.GXFormat;
+import gx.GXTiler;
+import gx.PixelSource;
+
+/**
+ * Builds the mipmap chain of an entry from its decoded base level. Every
+ * level is half the size of the one before it and encoded in the same GX
+ * format as the base level; the chain stops before a level would be smaller
+ * than the minimum size, have an odd side or not be made of whole tiles.
+ * Palette (CI) textures get no mipmaps.
+ *
+ * Safe to use from several converter threads at once.
+ */
+public class MipmapBuilder {
+	public static final int		DEFAULT_MIN_SIZE	= 8;
+
+	private Downsampler.Filter	filter;
+	private int					minSize;
+
+	/**
+	 * @param minSize
+	 *            Smallest width or height a level may have
+	 */
+	public MipmapBuilder(Downsampler.Filter filter, int minSize) {
+		this.filter = filter;
+		this.minSize = Math.max(minSize, 1);
+	}
+
+	/**
+	 * Parses "filter[:minsize]", filter is box or lanczos, e.g. "box" or
+	 * "lanczos:16"
+	 */
+	public static MipmapBuilder parse(String spec) {
+		String[] parts = StringUtils.split(spec, ':');
+		if (parts.length < 1 || parts.length > 2) {
+			throw new IllegalArgumentException("Invalid mipmap setting: " + spec);
+		}
+		Downsampler.Filter filter;
+		if (parts[0].equalsIgnoreCase("box")) {
+			filter = Downsampler.Filter.BOX;
+		} else if (parts[0].equalsIgnoreCase("lanczos")) {
+			filter = Downsampler.Filter.LANCZOS;
+		} else {
+			throw new IllegalArgumentException("Unknown mipmap filter: " + parts[0]);
+		}
+		int minSize = DEFAULT_MIN_SIZE;
+		if (parts.length > 1) {
+			try {
+				minSize = Integer.parseInt(parts[1]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid mipmap size: " + parts[1]);
+			}
+			if (minSize < 1) {
+				throw new IllegalArgumentException("Mipmap size must be at least 1: " + parts[1]);
+			}
+		}
+		return new MipmapBuilder(filter, minSize);
+	}
+
+	/**
+	 * @return The levels below the base level, largest first, each encoded in
+	 *         the given format. Empty if the texture can't have any.
+	 */
+	public List<byte[]> buildLevels(PixelSource base, int format) {
+		List<byte[]> levels = new ArrayList<byte[]>();
+		if (format == GXFormat.CI4 || format == GXFormat.CI8) {
+			return levels;
+		}
+		PixelSource level = base;
+		// The level count is stored in a byte
+		while (levels.size() < 254) {
+			int w = level.getWidth(), h = level.getHeight();
+			if (w % 2 != 0 || h % 2 != 0 || w / 2 < minSize || h / 2 < minSize
+					|| !GXFormat.fitsTiles(format, w / 2, h / 2)) {
+				break;
+			}
+			level = Downsampler.half(level, filter);
+			if (format == GXFormat.CMPR) {
+				levels.add(CMPREncoder.encode(level, null));
+			} else {
+				levels.add(GXTiler.tile(level, format, null));
+			}
+		}
+		return levels;
+	}
+
+	/**
+	 * @return Extra bytes per base level pixel building the chain needs at
+	 *         its peak
+	 */
+	public int getBytesPerPixel() {
+		return filter == Downsampler.Filter.LANCZOS ? 10 : 2;
+	}
+
+	public String toString() {
+		return filter.name().toLowerCase() + ":" + minSize;
+	}
+}
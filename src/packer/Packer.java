@@ -1,12 +1,26 @@
 package packer;
 
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+
+import org.apache.commons.lang.StringUtils;
 
 import util.Log;
 
 /**
  * Rice Hi-Res texture packer for Wii64
- * 
+ *
+ * Without arguments the GUI is started, with arguments the pak is built
+ * headless, see {@link #printUsage()}.
+ *
  * @author emu_kidid
  */
 
@@ -15,22 +29,372 @@ public class Packer {
 	private static Archiver	archiver	= null;
 
 	public static void main(String[] argv) {
+		if (argv.length > 0) {
+			System.exit(runHeadless(argv));
+		}
+		Log.info("Program startup");
+		// The frame starts builds itself, closing it exits
+		SwingUtilities.invokeLater(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					archiver = new Archiver();
+					archiver.setVisible(true);
+				} catch (IOException e) {
+					System.out.println("Error starting the GUI: " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Builds a pak from the command line without creating any AWT/Swing
+	 * component.
+	 *
+	 * @return the process exit code
+	 */
+	private static int runHeadless(String[] argv) {
+		System.setProperty("java.awt.headless", "true");
+		String texPath = null, pakPath = null, icoPath = null, previousPath = null, verifyPath = null;
+		String metricsPath = null;
+		String description = "", author = "", packer = "";
+		int threads = 0;
+		long memoryMB = 0, preallocMB = 0;
+		int maxError = -1;
+		double maxCIError = -1;
+		boolean deduplicate = true, deduplicateSources = false, store = false, cmpr = false, lossless = false;
+		boolean bucketIndex = false, preflight = false, continueOnError = false;
+		List<Compressor.Setting> compression = new ArrayList<Compressor.Setting>();
+		MipmapBuilder mipmaps = null;
+
+		for (int i = 0; i < argv.length; i++) {
+			String arg = argv[i];
+			if (arg.equals("-h") || arg.equals("--help")) {
+				printUsage();
+				return 0;
+			}
+			// Options without a value
+			if (arg.equals("-nodedup")) {
+				deduplicate = false;
+				continue;
+			} else if (arg.equals("-dedupsrc")) {
+				deduplicateSources = true;
+				continue;
+			} else if (arg.equals("-cmpr")) {
+				cmpr = true;
+				continue;
+			} else if (arg.equals("-lossless")) {
+				lossless = true;
+				continue;
+			} else if (arg.equals("-store")) {
+				store = true;
+				continue;
+			} else if (arg.equals("-index")) {
+				bucketIndex = true;
+				continue;
+			} else if (arg.equals("-preflight")) {
+				preflight = true;
+				continue;
+			} else if (arg.equals("-keepgoing")) {
+				continueOnError = true;
+				continue;
+			}
+			if (i + 1 >= argv.length) {
+				System.err.println("Missing value for " + arg);
+				printUsage();
+				return 2;
+			}
+			String value = argv[++i];
+			if (arg.equals("-t")) {
+				texPath = value;
+			} else if (arg.equals("-o")) {
+				pakPath = value;
+			} else if (arg.equals("-d")) {
+				description = checkLength("Description", value, 64);
+			} else if (arg.equals("-a")) {
+				author = checkLength("Author", value, 16);
+			} else if (arg.equals("-p")) {
+				packer = checkLength("Packer", value, 16);
+			} else if (arg.equals("-i")) {
+				icoPath = value;
+			} else if (arg.equals("-j")) {
+				try {
+					threads = Integer.parseInt(value);
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid thread count: " + value);
+					return 2;
+				}
+			} else if (arg.equals("-u")) {
+				previousPath = value;
+			} else if (arg.equals("-z")) {
+				try {
+					for (String spec : StringUtils.split(value, ',')) {
+						compression.add(Compressor.Setting.parse(spec));
+					}
+				} catch (IllegalArgumentException e) {
+					System.err.println(e.getMessage());
+					return 2;
+				}
+			} else if (arg.equals("-m")) {
+				try {
+					memoryMB = Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid memory budget: " + value);
+					return 2;
+				}
+			} else if (arg.equals("-maxerr")) {
+				try {
+					maxError = Integer.parseInt(value);
+				} catch (NumberFormatException e) {
+					maxError = -1;
+				}
+				if (maxError < 0 || maxError > 255) {
+					System.err.println("Invalid maximum error: " + value);
+					return 2;
+				}
+			} else if (arg.equals("-ci")) {
+				try {
+					maxCIError = Double.parseDouble(value);
+				} catch (NumberFormatException e) {
+					maxCIError = -1;
+				}
+				if (maxCIError < 0) {
+					System.err.println("Invalid palette error: " + value);
+					return 2;
+				}
+			} else if (arg.equals("-verify")) {
+				verifyPath = value;
+			} else if (arg.equals("-metrics")) {
+				metricsPath = value;
+			} else if (arg.equals("-mip")) {
+				try {
+					mipmaps = MipmapBuilder.parse(value);
+				} catch (IllegalArgumentException e) {
+					System.err.println(e.getMessage());
+					return 2;
+				}
+			} else if (arg.equals("-prealloc")) {
+				try {
+					preallocMB = Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid preallocation size: " + value);
+					return 2;
+				}
+			} else {
+				System.err.println("Unknown option: " + arg);
+				printUsage();
+				return 2;
+			}
+		}
+		if (verifyPath != null) {
+			return verify(verifyPath);
+		}
+		if (texPath == null || pakPath == null) {
+			printUsage();
+			return 2;
+		}
+		if (!new File(texPath).isDirectory()) {
+			System.err.println("Texture directory not found: " + texPath);
+			return 1;
+		}
+
+		PakBuilder builder = new PakBuilder(texPath, pakPath);
+		builder.setDescription(description);
+		builder.setAuthor(author);
+		builder.setPacker(packer);
+		if (threads > 0) {
+			builder.setThreadCount(threads);
+		}
+		builder.setPreviousPakPath(previousPath);
+		builder.setDeduplicate(deduplicate);
+		builder.setDeduplicateSources(deduplicateSources);
+		FormatSelector formats = new FormatSelector();
+		formats.setAllowCMPR(cmpr);
+		if (maxCIError >= 0) {
+			formats.setAllowCI(true, maxCIError);
+		}
+		if (maxError >= 0) {
+			formats.setPolicy(FormatSelector.Policy.MAX_ERROR);
+			formats.setMaxError(maxError);
+		} else if (lossless) {
+			formats.setPolicy(FormatSelector.Policy.LOSSLESS);
+		}
+		builder.setFormatSelector(formats);
+		builder.setMipmapBuilder(mipmaps);
+		builder.setBucketIndex(bucketIndex);
+		builder.setPreflight(preflight);
+		builder.setContinueOnError(continueOnError);
+		if (!compression.isEmpty() || store) {
+			if (compression.isEmpty()) {
+				compression.add(Compressor.Setting.parse("gzip"));
+			}
+			builder.setCompressor(new Compressor(compression, store));
+		}
+		if (memoryMB > 0) {
+			builder.setMemoryBudget(memoryMB * 1024 * 1024);
+		}
+		if (preallocMB > 0) {
+			builder.setPreallocateSize(preallocMB * 1024 * 1024);
+		}
+		if (icoPath != null) {
+			try {
+				BufferedImage img = ImageIO.read(new File(icoPath));
+				if (img == null || img.getWidth() != 96 || img.getHeight() != 72) {
+					System.err.println("Icon must be a 96x72 image: " + icoPath);
+					return 1;
+				}
+				builder.setIcon(img);
+			} catch (IOException e) {
+				System.err.println("Error reading banner icon image: " + icoPath);
+				return 1;
+			}
+		}
+
+		int result = 1;
 		try {
-			Log.info("Program startup");
-			archiver = new Archiver();
-			archiver.setVisible(true);
-			while (archiver.isVisible()) {
-				Thread.sleep(100);
-				if (archiver.isStartPushed()) {
-					archiver.run();
-					archiver.setStartPushed(false);
+			Log.info("Building " + pakPath + " from " + texPath);
+			if (builder.build()) {
+				System.out.println("Successfully created texture pak with " + builder.getNumAdded() + " entries");
+				if (builder.getQuarantine().size() > 0) {
+					System.out.println(builder.getQuarantine().size() + " textures were left out, see "
+							+ QuarantineReport.getReportFile(new File(pakPath)).getPath());
 				}
+				result = 0;
+			} else {
+				System.err.println("Failed to create texture pak!");
 			}
-			Log.info("Program exit");
 		} catch (IOException e) {
-			System.out.println("Error Creating output archive to: " + archiver.getPakPath());
-		} catch (InterruptedException e) {
+			System.err.println("Error Creating output archive to: " + pakPath);
+			e.printStackTrace();
+		}
+		if (metricsPath != null && builder.getMetrics() != null) {
+			try {
+				builder.getMetrics().writeSummary(new File(metricsPath));
+			} catch (IOException e) {
+				System.err.println("Error writing build metrics to: " + metricsPath);
+			}
+		}
+		return result;
+	}
+
+	private static String checkLength(String field, String value, int maxChars) {
+		if (value.getBytes().length > maxChars) {
+			System.err.println(field + " has a " + maxChars + " char limit and will be truncated");
+		}
+		return value;
+	}
+
+	/**
+	 * Checks that the LUT of a pak is sorted and unique, that its bucket index
+	 * finds every entry and that every entry inflates to the size its header
+	 * says
+	 *
+	 * @return the process exit code
+	 */
+	private static int verify(String pakPath) {
+		PakReader reader;
+		try {
+			reader = PakReader.open(new File(pakPath));
+		} catch (IOException e) {
+			System.err.println("Failed to open " + pakPath + ": " + e.getMessage());
+			return 1;
+		}
+		System.out.println(reader.getDescription() + " by " + reader.getAuthor() + ", packed by " + reader.getPacker()
+				+ " on " + reader.getDate());
+		if (reader.hasBucketIndex()) {
+			System.out.println("Bucket index of " + (1 << reader.getBucketBits()) + " buckets");
+		}
+		int numBad = 0, numData = 0, numWarnings = 0;
+		Set<Long> offsets = new HashSet<Long>();
+		for (int i = 0; i < reader.size(); i++) {
+			long key = reader.getKey(i);
+			if (i > 0 && key + Long.MIN_VALUE <= reader.getKey(i - 1) + Long.MIN_VALUE) {
+				System.out.println("LUT entry " + i + " is out of order or a duplicate");
+				numBad++;
+			} else if (reader.hasBucketIndex() && reader.find(key) != i) {
+				System.out.println("Bucket index doesn't find LUT entry " + i);
+				numBad++;
+			}
+			if (!offsets.add(reader.getOffset(i))) {
+				// Deduplicated, checked already
+				continue;
+			}
+			numData++;
+			try {
+				PakReader.Entry entry = reader.getEntry(i);
+				if (!entry.hasKnownSize()) {
+					System.out.println("Warning: entry " + Long.toHexString(key).toUpperCase() + " is "
+							+ entry.getWidth() + "x" + entry.getHeight()
+							+ " in its header, a side of 1024 or more wrapped, its size can't be checked");
+					numWarnings++;
+					// Compressed entries still have to inflate and pass their CRC
+					if ((entry.getFlags() & Compressor.FLAG_STORED) == 0) {
+						entry.readTexture();
+					}
+					continue;
+				}
+				int size = entry.readTexture().length;
+				if (size != entry.getTextureSize()) {
+					System.out.println("Entry " + Long.toHexString(key).toUpperCase() + " inflates to " + size
+							+ " bytes instead of " + entry.getTextureSize());
+					numBad++;
+				}
+			} catch (IOException e) {
+				System.out.println("Entry " + Long.toHexString(key).toUpperCase() + ": " + e.getMessage());
+				numBad++;
+			}
 		}
+		reader.close();
+		System.out.println(reader.size() + " entries, " + numData + " stored once, " + numBad + " bad, " + numWarnings
+				+ " warnings");
+		return numBad == 0 ? 0 : 1;
+	}
+
+	private static void printUsage() {
+		// @formatter:off
+		System.out.println("Usage: java -jar RicePacker.jar -t <texture dir> -o <output pak> [options]\n"
+				+ "       java -jar RicePacker.jar -verify <pak>\n"
+				+ "  -t <dir>      Directory containing extracted N64 hi-res textures\n"
+				+ "  -o <file>     File to output the texture archive to\n"
+				+ "  -d <text>     Pak description (64 chars max)\n"
+				+ "  -a <text>     Pak original author (16 chars max)\n"
+				+ "  -p <text>     Packer of this archive (16 chars max)\n"
+				+ "  -i <file>     96x72 image file to use as the pak banner\n"
+				+ "  -j <threads>  Number of conversion threads (default: one per core)\n"
+				+ "  -m <MB>       Memory textures in flight may use (default: "
+				+ (EntryPipeline.DEFAULT_MEMORY_BUDGET / (1024 * 1024)) + ")\n"
+				+ "  -prealloc <MB> Space to reserve for the output pak up front\n"
+				+ "  -u <file>     Previous pak to reuse unchanged entries from (incremental repack),\n"
+				+ "                may be the output pak itself\n"
+				+ "  -nodedup      Store identical entries separately\n"
+				+ "  -dedupsrc     Hash source files before decoding to skip converting duplicates\n"
+				+ "  -z <settings> Compression settings to try, the smallest result wins. Comma separated\n"
+				+ "                list of framing[:level[:strategy]], framing is gzip (default) or deflate\n"
+				+ "                (raw, no gzip header), strategy is default, filtered or huffman.\n"
+				+ "                e.g. -z deflate:9,deflate:9:filtered\n"
+				+ "  -lossless     Store each texture in the smallest GX format that keeps it exact\n"
+				+ "                (I4, I8, IA4, IA8, RGB565, RGB5A3 or RGBA8)\n"
+				+ "  -maxerr <n>   Like -lossless but allow channels to be off by up to n (0-255)\n"
+				+ "  -ci <rms>     Store textures that fit a 16/256 colour palette as CI4/CI8, quantizing\n"
+				+ "                them if the rms error stays within <rms> (0: exact palettes only)\n"
+				+ "  -cmpr         Store opaque and 1 bit alpha textures as CMPR (lossy, 1/8 the size)\n"
+				+ "  -mip <filter[:minsize]> Store a mipmap chain after every texture, halved with a box or\n"
+				+ "                lanczos filter down to minsize (default: " + MipmapBuilder.DEFAULT_MIN_SIZE + "). CI textures\n"
+				+ "                get none. e.g. -mip lanczos:16\n"
+				+ "  -store        Store entries uncompressed when compression doesn't make them smaller\n"
+				+ "  -index        Write a bucket index after the lookup table (top CRC64 bits to the first\n"
+				+ "                LUT entry of each bucket) so loaders don't search the whole table\n"
+				+ "  -preflight    Check the PNG headers of every texture (readable, _a size matches) before\n"
+				+ "                converting any, and estimate the pixels and memory the build takes\n"
+				+ "  -keepgoing    Leave textures that fail the preflight or their conversion out of the pak\n"
+				+ "                and list them in <output pak>.quarantine instead of failing the build\n"
+				+ "  -metrics <file> Write stage timings, throughput and GC time of the build to a JSON file.\n"
+				+ "                They can also be watched through JMX (packer:type=BuildMetrics) while it runs\n"
+				+ "  -verify <pak> Check that a pak's lookup table is sorted and every entry inflates\n"
+				+ "                to the size of its texture, instead of building one\n"
+				+ "Run without arguments to start the GUI.");
+		// @formatter:on
 	}
 
 }
@@ -0,0 +1,632 @@
+package packer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import util.Log;
+
+/**
+ * Builds a texture pak from a directory of Rice hi-res textures. This is the
+ * whole packing process without any GUI, it is driven by the {@link Archiver}
+ * frame or headless from the command line.
+ */
+public class PakBuilder {
+
+	/**
+	 * Receives progress messages while the pak is being built, on the
+	 * building thread and at most every {@link PakBuilder#PROGRESS_INTERVAL}
+	 * ms
+	 */
+	public interface ProgressListener {
+		public void progress(String message);
+	}
+
+	/** Least time between two progress messages, in ms */
+	public static final long	PROGRESS_INTERVAL	= 100;
+
+	private String				texPath;
+	private String				pakPath;
+	private String				description			= "";
+	private String				author				= "";
+	private String				packer				= "";
+	private BufferedImage		icon				= null;
+	private int					threadCount			= Runtime.getRuntime().availableProcessors();
+	private long				memoryBudget		= EntryPipeline.DEFAULT_MEMORY_BUDGET;
+	private ProgressListener	listener			= null;
+	private String				previousPakPath		= null;
+	private boolean				deduplicate			= true;
+	private boolean				deduplicateSources	= false;
+	private Compressor			compressor			= Compressor.getDefault();
+	private FormatSelector		formatSelector		= new FormatSelector();
+	private long				preallocateSize		= 0;
+	private MipmapBuilder		mipmapBuilder		= null;
+	private boolean				bucketIndex			= false;
+	private boolean				preflight			= false;
+	private boolean				continueOnError		= false;
+
+	private PakWriter			writer;
+	private PakManifest.Writer	manifest;
+	private PreviousPak			previousPak;
+	private BuildMetrics		metrics;
+	private QuarantineReport	quarantine;
+	private volatile Preflight	preflightCheck;
+	private volatile EntryPipeline	pipeline;
+	private volatile DirectoryScanner	scanner;
+	private volatile boolean	scanned;
+	private volatile boolean	cancelled			= false;
+	// When the last progress message went out and the conversion started
+	private long				lastProgress, convertStart;
+
+	/**
+	 * @param texPath
+	 *            The root path of all of the individual .png files
+	 * @param pakPath
+	 *            The path of the compressed and final pak
+	 */
+	public PakBuilder(String texPath, String pakPath) {
+		this.texPath = texPath;
+		this.pakPath = pakPath;
+	}
+
+	/**
+	 * Scans the texture directory, converts all textures and writes the pak.
+	 * The pak is deleted again if the build fails or is cancelled.
+	 *
+	 * @return true if the pak was created successfully
+	 */
+	public boolean build() throws IOException {
+		File outputArchive = new File(pakPath);
+		File target = outputArchive;
+		quarantine = new QuarantineReport(new File(texPath));
+		previousPak = null;
+		if (previousPakPath != null) {
+			File previous = new File(previousPakPath);
+			previousPak = PreviousPak.open(previous, new File(texPath), getSettings());
+			// Can't read the old pak while overwriting it
+			if (previousPak != null && previous.getCanonicalFile().equals(outputArchive.getCanonicalFile())) {
+				target = new File(pakPath + ".tmp");
+			}
+		}
+		metrics = new BuildMetrics();
+		metrics.register();
+		try {
+			writer = new PakWriter(target);
+			writer.setDeduplicate(deduplicate);
+			writer.setBucketIndex(bucketIndex);
+			manifest = null;
+			long start;
+			boolean written = false;
+			try {
+				// Records go to the manifest as the entries are written
+				manifest = PakManifest.Writer.open(PakManifest.getManifestFile(outputArchive), getSettings());
+				if (preallocateSize > 0) {
+					writer.preallocate(preallocateSize);
+				}
+				writer.initializePak(description, author, packer, icon);
+				boolean processed = processTextures();
+				saveQuarantine(outputArchive);
+				if (!processed) {
+					return false;
+				}
+				start = System.nanoTime();
+				writer.finalizePak();
+				written = true;
+			} finally {
+				if (previousPak != null) {
+					Log.info("Entries reused from previous pak: " + previousPak.getNumReused());
+					previousPak.close();
+				}
+				if (!written) {
+					discard(target);
+				}
+			}
+			// Either both the pak and its manifest go in place or neither does
+			FileSwap pakSwap = null;
+			FileSwap manifestSwap;
+			try {
+				if (target != outputArchive) {
+					pakSwap = FileSwap.replace(target, outputArchive);
+				}
+				manifestSwap = manifest.finish(outputArchive.length());
+			} catch (IOException e) {
+				manifest.abort();
+				if (pakSwap != null) {
+					pakSwap.rollback();
+				} else if (target != outputArchive && target.exists() && !target.delete()) {
+					Log.info("Failed to delete the unfinished pak " + target.getPath());
+				}
+				throw e;
+			}
+			if (pakSwap != null) {
+				pakSwap.commit();
+			}
+			manifestSwap.commit();
+			metrics.recordSince(BuildMetrics.Stage.FINALIZE, start);
+			writer.printStats();
+			return true;
+		} finally {
+			metrics.finish();
+			metrics.unregister();
+			metrics.printStats();
+		}
+	}
+
+	/** Removes the pak and manifest of a build that failed or was cancelled */
+	private void discard(File target) {
+		try {
+			writer.close();
+		} catch (IOException e) {
+		}
+		if (manifest != null) {
+			manifest.abort();
+		}
+		if (target.exists() && !target.delete()) {
+			Log.info("Failed to delete the unfinished pak " + target.getPath());
+		}
+	}
+
+	private void saveQuarantine(File outputArchive) {
+		File reportFile = QuarantineReport.getReportFile(outputArchive);
+		try {
+			quarantine.save(reportFile);
+			if (quarantine.size() > 0) {
+				Log.info(quarantine.size() + " textures left out, see " + reportFile.getPath());
+			}
+		} catch (IOException e) {
+			Log.info("Failed to write " + reportFile.getPath() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Scans the texture directory on a thread of its own while the textures
+	 * found are converted and added: _all files straight away, the _rgb/_a
+	 * and _ciByRGBA files once the scan is done (see {@link TextureVariants}).
+	 * With a preflight the whole directory is scanned and checked first.
+	 *
+	 * @throws IOException
+	 *             If writing to the pak failed
+	 */
+	private boolean processTextures() throws IOException {
+		final DuplicateSources duplicates = deduplicateSources ? new DuplicateSources() : null;
+		final DirectoryScanner scanner = new DirectoryScanner(threadCount);
+		this.scanner = scanner;
+		scanned = false;
+		if (cancelled) {
+			scanner.cancel();
+		}
+		final File root = new File(texPath);
+
+		final EntryPipeline.EntryQueue entries;
+		Thread scanThread = null;
+		if (preflight) {
+			entries = preflight(root, scanner, duplicates);
+			if (entries == null) {
+				return false;
+			}
+		} else {
+			entries = new EntryPipeline.EntryQueue();
+			scanThread = new Thread("Scanner Thread") {
+				@Override
+				public void run() {
+					scanTextures(root, scanner, entries, duplicates);
+				}
+			};
+		}
+
+		// Try multiple compression settings in parallel too
+		ExecutorService compressionPool = null;
+		if (compressor.getNumSettings() > 1 && threadCount > 1) {
+			compressionPool = Executors.newFixedThreadPool(threadCount);
+		}
+		compressor.setExecutor(compressionPool);
+
+		// Convert them on all cores and add them in order
+		EntryPipeline pipeline = new EntryPipeline(threadCount, memoryBudget);
+		pipeline.setContinueOnError(continueOnError);
+		this.pipeline = pipeline;
+		if (cancelled) {
+			scanner.cancel();
+			pipeline.cancel();
+		}
+		Log.info("Converting " + (scanThread != null ? "textures as they are found" : entries.size() + " textures")
+				+ " on " + pipeline.getThreadCount() + " threads within " + (memoryBudget / (1024 * 1024)) + " MB");
+		convertStart = System.nanoTime();
+		if (scanThread != null) {
+			scanThread.start();
+		}
+		boolean success;
+		try {
+			success = pipeline.run(entries, new EntryPipeline.EntryHandler() {
+
+				@Override
+				public void entryProcessed(ArchiveEntry entry, int index, int total) throws IOException {
+					if (entry.getAliasOf() >= 0 && !writer.getEntryTable().contains(entry.getAliasOf())) {
+						// Same sources as an entry that failed
+						entry.getMeta().setErrorMsg("Same source files as an earlier texture, which failed");
+						entryFailed(entry, index, total);
+						return;
+					}
+					long start = System.nanoTime(), length = writer.getLength();
+					try {
+						writer.addEntry(entry);
+					} catch (IOException e) {
+						Log.info("Failed to write " + entry.getPrimaryFile().getPath() + " to the pak: " + e.getMessage());
+						throw e;
+					}
+					metrics.recordSince(BuildMetrics.Stage.WRITE, start);
+					metrics.addEntry(entry.getSourceStamp().getSize(), writer.getLength() - length);
+					String alphaPath = entry.getAlphaFile() != null ? PakManifest.relativize(root, entry.getAlphaFile()) : null;
+					manifest.add(new PakManifest.Record(PakManifest.relativize(root, entry.getPrimaryFile()), alphaPath, entry
+							.getSourceStamp(), entry.getMeta().getCRC64(), entry.getMeta().getOffset(), writer.getEntryLength(entry)));
+					progress(getProgress(index + 1, total < 0 ? entries.size() : total, total < 0), index + 1 == total);
+				}
+
+				@Override
+				public void entryFailed(ArchiveEntry entry, int index, int total) {
+					String reason = entry.getMeta() != null ? entry.getMeta().getErrorMsg() : null;
+					Log.info("Leaving out " + entry.getPrimaryFile().getPath() + ": " + reason);
+					quarantine.add(QuarantineReport.CONVERT, entry, reason != null ? reason : "Unknown error");
+					progress(getProgress(index + 1, total < 0 ? entries.size() : total, total < 0), index + 1 == total);
+				}
+			});
+		} finally {
+			if (compressionPool != null) {
+				compressionPool.shutdownNow();
+			}
+			// Nothing left to scan for if the build failed
+			scanner.cancel();
+			if (scanThread != null) {
+				try {
+					scanThread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		formatSelector.printStats();
+		compressor.printStats();
+		Log.info("Peak in-flight memory: " + (pipeline.getPeakInFlightBytes() / 1024) + " KB");
+		if (pipeline.isCancelled()) {
+			Log.info("Build cancelled");
+		} else if (!success) {
+			ArchiveEntry failed = pipeline.getFailedEntry();
+			if (failed != null) {
+				Log.info("\r\nERROR: \r\n" + failed.getPrimaryFile().getPath() + "\r\nFailed to process due to: "
+						+ (failed.getMeta() != null ? failed.getMeta().getErrorMsg() : null));
+			}
+		} else if (!scanned) {
+			Log.info("Failed to scan " + texPath);
+			success = false;
+		}
+		return success;
+	}
+
+	/**
+	 * Scans the whole texture directory and checks every texture found with a
+	 * {@link Preflight}, the ones that fail are quarantined
+	 *
+	 * @return The textures to convert, or null if the build stops here: the
+	 *         scan failed or was cancelled, or textures failed and the build
+	 *         doesn't continue on error
+	 */
+	private EntryPipeline.EntryQueue preflight(File root, DirectoryScanner scanner, DuplicateSources duplicates) {
+		EntryPipeline.EntryQueue scannedEntries = new EntryPipeline.EntryQueue();
+		scanTextures(root, scanner, scannedEntries, duplicates);
+		if (!scanned) {
+			Log.info(cancelled ? "Build cancelled" : "Failed to scan " + texPath);
+			return null;
+		}
+		Preflight check = new Preflight(threadCount, memoryBudget);
+		preflightCheck = check;
+		if (cancelled) {
+			check.cancel();
+		}
+		List<ArchiveEntry> passed;
+		try {
+			passed = check.check(scannedEntries.getEntries(), quarantine, new ProgressListener() {
+
+				@Override
+				public void progress(String message) {
+					PakBuilder.this.progress(message, false);
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			passed = null;
+		}
+		if (passed == null) {
+			Log.info("Build cancelled");
+			return null;
+		}
+		check.printStats();
+		if (check.getNumFailed() > 0 && !continueOnError) {
+			Log.info(check.getNumFailed() + " textures failed the preflight, nothing was converted");
+			return null;
+		}
+		return new EntryPipeline.EntryQueue(passed);
+	}
+
+	/**
+	 * Walks the texture directory and adds the textures to the queue, closes
+	 * it when done
+	 */
+	private void scanTextures(File root, final DirectoryScanner scanner, final EntryPipeline.EntryQueue entries,
+			final DuplicateSources duplicates) {
+		final TextureVariants variants = new TextureVariants();
+		long start = System.nanoTime();
+		try {
+			boolean complete = scanner.scan(root, new DirectoryScanner.FileHandler() {
+
+				@Override
+				public void fileFound(File file) {
+					TextureVariants.Texture texture = variants.add(file);
+					if (texture != null) {
+						entries.add(createEntry(texture, entries.size(), duplicates));
+					}
+					if (metrics.getEntries() == 0) {
+						progress(scanner.getNumFound() + " possible textures found", false);
+					}
+				}
+			});
+			if (complete) {
+				for (TextureVariants.Texture texture : variants.finish()) {
+					entries.add(createEntry(texture, entries.size(), duplicates));
+				}
+				Log.info("Number of image files found: " + scanner.getNumFound());
+				Log.info("Textures to convert: " + variants.getTextures().size() + " (" + variants.getNumDuplicates()
+						+ " duplicate names, " + variants.getNumKeyDuplicates() + " duplicate CRC64s, "
+						+ variants.getNumInvalid() + " bad names, " + variants.getNumOrphans()
+						+ " _a files without _rgb ignored)");
+				scanned = true;
+			}
+		} catch (InterruptedException e) {
+			// Cancelled
+		} finally {
+			metrics.recordSince(BuildMetrics.Stage.SCAN, start);
+			entries.close();
+		}
+	}
+
+	private ArchiveEntry createEntry(TextureVariants.Texture texture, int sequence, DuplicateSources duplicates) {
+		ArchiveEntry entry = new ArchiveEntry(texture.getPrimaryFile(), texture.getAlphaFile(), texture.getTextureName());
+		entry.setPreviousPak(previousPak);
+		entry.setDuplicateSources(duplicates);
+		entry.setSequence(sequence);
+		entry.setCompressor(compressor);
+		entry.setFormatSelector(formatSelector);
+		entry.setMipmapBuilder(mipmapBuilder);
+		entry.setMetrics(metrics);
+		return entry;
+	}
+
+	/**
+	 * @param last
+	 *            Send it even if the previous message went out less than
+	 *            {@link #PROGRESS_INTERVAL} ago
+	 */
+	private synchronized void progress(String message, boolean last) {
+		long now = System.nanoTime();
+		if (listener != null && (last || now - lastProgress >= PROGRESS_INTERVAL * 1000000)) {
+			lastProgress = now;
+			listener.progress(message);
+		}
+	}
+
+	/**
+	 * @param scanning
+	 *            The directory is still being scanned, total is only the
+	 *            number of textures found so far
+	 * @return Entries done, their rate, source MB/s and the time left
+	 */
+	private String getProgress(int done, int total, boolean scanning) {
+		double seconds = Math.max((System.nanoTime() - convertStart) / 1e9, 0.001);
+		double rate = done / seconds;
+		String message = String.format(Locale.US, "%d of %d%s processed, %.0f entries/s, %.1f MB/s", done, total,
+				scanning ? "+" : "", rate, metrics.getBytesIn() / (1024 * 1024 * seconds));
+		if (scanning) {
+			return message + ", scanning";
+		}
+		long eta = (long) ((total - done) / rate);
+		return message + String.format(", %d:%02d left", eta / 60, eta % 60);
+	}
+
+	/**
+	 * Stops a running build from any thread, {@link #build()} then returns
+	 * false without finalizing the pak
+	 */
+	public void cancel() {
+		cancelled = true;
+		DirectoryScanner scanner = this.scanner;
+		if (scanner != null) {
+			scanner.cancel();
+		}
+		Preflight preflightCheck = this.preflightCheck;
+		if (preflightCheck != null) {
+			preflightCheck.cancel();
+		}
+		EntryPipeline pipeline = this.pipeline;
+		if (pipeline != null) {
+			pipeline.cancel();
+		}
+	}
+
+	/**
+	 * @return Everything that decides the bytes of a converted entry:
+	 *         compression, GX format selection and mipmaps. An entry of a
+	 *         previous pak is only reused if these match.
+	 */
+	public String getSettings() {
+		return "z=" + compressor + " fmt=" + formatSelector + " mip=" + (mipmapBuilder != null ? mipmapBuilder : "none");
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public int getNumAdded() {
+		return writer != null ? writer.getNumAdded() : 0;
+	}
+
+	/**
+	 * @return Stage timings and totals of the last build, registered with
+	 *         JMX while it runs. Null before the first build.
+	 */
+	public BuildMetrics getMetrics() {
+		return metrics;
+	}
+
+	public String getTexturePath() {
+		return texPath;
+	}
+
+	public String getPakPath() {
+		return pakPath;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	public void setAuthor(String author) {
+		this.author = author;
+	}
+
+	public void setPacker(String packer) {
+		this.packer = packer;
+	}
+
+	/**
+	 * @param icon
+	 *            96x72 banner icon, or null for a blank one
+	 */
+	public void setIcon(BufferedImage icon) {
+		this.icon = icon;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @param memoryBudget
+	 *            Bytes that textures being converted and waiting to be written
+	 *            may hold at once
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @param previousPakPath
+	 *            Pak from an earlier build (with its manifest next to it) to
+	 *            copy unchanged entries from, may be the output pak itself. Null
+	 *            rebuilds everything.
+	 */
+	public void setPreviousPakPath(String previousPakPath) {
+		this.previousPakPath = previousPakPath;
+	}
+
+	/**
+	 * @param deduplicate
+	 *            Store identical entries only once (on by default)
+	 */
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
+	}
+
+	/**
+	 * @param deduplicateSources
+	 *            Hash the source files before decoding and skip converting
+	 *            entries identical to an earlier one
+	 */
+	public void setDeduplicateSources(boolean deduplicateSources) {
+		this.deduplicateSources = deduplicateSources;
+	}
+
+	/**
+	 * @param formatSelector
+	 *            Picks the GX format of every texture, RGBA8 for all unless
+	 *            set
+	 */
+	public void setFormatSelector(FormatSelector formatSelector) {
+		this.formatSelector = formatSelector;
+	}
+
+	/**
+	 * @param mipmapBuilder
+	 *            Builds the mipmap levels stored with every texture, null for
+	 *            none
+	 */
+	public void setMipmapBuilder(MipmapBuilder mipmapBuilder) {
+		this.mipmapBuilder = mipmapBuilder;
+	}
+
+	/**
+	 * @param bucketIndex
+	 *            Write a {@link BucketIndex} after the LUT so loaders only
+	 *            search one bucket
+	 */
+	public void setBucketIndex(boolean bucketIndex) {
+		this.bucketIndex = bucketIndex;
+	}
+
+	/**
+	 * @param preflight
+	 *            Scan the whole texture directory and check every texture's
+	 *            PNG headers before converting any, so a bad file stops the
+	 *            build before any time is spent on it
+	 */
+	public void setPreflight(boolean preflight) {
+		this.preflight = preflight;
+	}
+
+	/**
+	 * @param continueOnError
+	 *            Leave textures that fail the preflight or their conversion
+	 *            out of the pak and list them in the {@link QuarantineReport}
+	 *            instead of failing the build
+	 */
+	public void setContinueOnError(boolean continueOnError) {
+		this.continueOnError = continueOnError;
+	}
+
+	/** @return The textures left out of the last build */
+	public QuarantineReport getQuarantine() {
+		return quarantine;
+	}
+
+	/**
+	 * @param preallocateSize
+	 *            Bytes to reserve for the pak before writing it, 0 to let it
+	 *            grow as it is written
+	 */
+	public void setPreallocateSize(long preallocateSize) {
+		this.preallocateSize = preallocateSize;
+	}
+
+	/**
+	 * @param compressor
+	 *            How entries are compressed, gzip with the default level
+	 *            unless set
+	 */
+	public void setCompressor(Compressor compressor) {
+		this.compressor = compressor;
+	}
+
+	public void setProgressListener(ProgressListener listener) {
+		this.listener = listener;
+	}
+}
@@ -0,0 +1,272 @@
+package packer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Sidecar file written next to every pak ("name.pak.manifest") recording
+ * where each source texture ended up, so the next build can copy unchanged
+ * entries straight across instead of converting them again.
+ *
+ * The header holds the pak's length and the settings that decide how entries
+ * are converted, which have to match for an entry to be reused. A build
+ * streams the records to the file through a {@link Writer} as the entries
+ * are written, rather than holding them all until the end.
+ *
+ * Text, one tab separated record per entry: <br>
+ * source path (relative to the texture dir); alpha path or empty; total
+ * size; last modified; SHA-1; u64 crc (hex); entry offset; entry length
+ */
+public class PakManifest {
+
+	private static final String	HEADER			= "# GXA1 manifest 1";
+	// The pak length is written zero padded, to be filled in at the end
+	private static final int	LENGTH_DIGITS	= 19;
+
+	/**
+	 * A single pak entry and the sources it was built from
+	 */
+	public static class Record {
+		private String		path;
+		private String		alphaPath;
+		private SourceStamp	stamp;
+		private long		crc64;
+		private long		offset;
+		private int			length;
+
+		public Record(String path, String alphaPath, SourceStamp stamp, long crc64, long offset, int length) {
+			this.path = path;
+			this.alphaPath = alphaPath;
+			this.stamp = stamp;
+			this.crc64 = crc64;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public String getAlphaPath() {
+			return alphaPath;
+		}
+
+		public SourceStamp getStamp() {
+			return stamp;
+		}
+
+		public long getCRC64() {
+			return crc64;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		public int getLength() {
+			return length;
+		}
+	}
+
+	private List<Record>	records	= new ArrayList<Record>();
+	private long			pakLength;
+	private String			settings;
+
+	/**
+	 * @return The manifest file belonging to a pak
+	 */
+	public static File getManifestFile(File pak) {
+		return new File(pak.getPath() + ".manifest");
+	}
+
+	/**
+	 * @return The path of file relative to root, with '/' separators
+	 */
+	public static String relativize(File root, File file) {
+		String rootPath = StringUtils.replace(root.getAbsolutePath(), "\\", "/");
+		String filePath = StringUtils.replace(file.getAbsolutePath(), "\\", "/");
+		if (!rootPath.endsWith("/")) {
+			rootPath += "/";
+		}
+		if (filePath.startsWith(rootPath)) {
+			return filePath.substring(rootPath.length());
+		}
+		return filePath;
+	}
+
+	public void add(Record record) {
+		records.add(record);
+	}
+
+	public List<Record> getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return The records keyed by source path
+	 */
+	public Map<String, Record> getRecordsByPath() {
+		Map<String, Record> map = new HashMap<String, Record>(records.size() * 2);
+		for (Record record : records) {
+			map.put(record.getPath(), record);
+		}
+		return map;
+	}
+
+	/**
+	 * @return The length of the pak this manifest describes, to detect a pak
+	 *         that was rebuilt without its manifest
+	 */
+	public long getPakLength() {
+		return pakLength;
+	}
+
+	public void setPakLength(long pakLength) {
+		this.pakLength = pakLength;
+	}
+
+	/**
+	 * @return The conversion settings the pak was built with, see
+	 *         {@link PakBuilder#getSettings()}. Null for a manifest written
+	 *         before they were recorded.
+	 */
+	public String getSettings() {
+		return settings;
+	}
+
+	public void setSettings(String settings) {
+		this.settings = settings;
+	}
+
+	public void save(File file) throws IOException {
+		Writer writer = Writer.open(file, settings);
+		try {
+			for (Record record : records) {
+				writer.add(record);
+			}
+		} catch (IOException e) {
+			writer.abort();
+			throw e;
+		}
+		writer.finish(pakLength).commit();
+	}
+
+	/**
+	 * Writes a manifest a record at a time to a temporary file next to it,
+	 * which replaces the manifest once it is finished
+	 */
+	public static class Writer {
+		private File			file;
+		private File			tempFile;
+		private BufferedWriter	out;
+
+		private Writer(File file) {
+			this.file = file;
+			this.tempFile = new File(file.getPath() + ".tmp");
+		}
+
+		/**
+		 * @param settings
+		 *            See {@link PakManifest#getSettings()}, may be null
+		 */
+		public static Writer open(File file, String settings) throws IOException {
+			Writer writer = new Writer(file);
+			writer.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(writer.tempFile), "UTF-8"));
+			writer.out.write(HEADER + "\t" + String.format("%0" + LENGTH_DIGITS + "d", 0)
+					+ (settings != null ? "\t" + settings : "") + "\n");
+			return writer;
+		}
+
+		public void add(Record r) throws IOException {
+			out.write(r.getPath() + "\t" + (r.getAlphaPath() != null ? r.getAlphaPath() : "") + "\t"
+					+ r.getStamp().getSize() + "\t" + r.getStamp().getModified() + "\t" + r.getStamp().getDigest()
+					+ "\t" + Long.toHexString(r.getCRC64()) + "\t" + r.getOffset() + "\t" + r.getLength() + "\n");
+		}
+
+		/**
+		 * Fills in the pak's length and puts the manifest in place of the
+		 * previous one, which is kept until the swap is committed
+		 */
+		public FileSwap finish(long pakLength) throws IOException {
+			out.close();
+			RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+			try {
+				raf.seek(HEADER.length() + 1);
+				raf.write(String.format("%0" + LENGTH_DIGITS + "d", pakLength).getBytes("UTF-8"));
+			} finally {
+				raf.close();
+			}
+			return FileSwap.replace(tempFile, file);
+		}
+
+		/** Closes and deletes the unfinished manifest */
+		public void abort() {
+			try {
+				out.close();
+			} catch (IOException e) {
+			}
+			tempFile.delete();
+		}
+	}
+
+	public static PakManifest load(File file) throws IOException {
+		PakManifest manifest = new PakManifest();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line = in.readLine();
+			if (line == null || !line.startsWith(HEADER + "\t")) {
+				throw new IOException("Not a pak manifest: " + file);
+			}
+			try {
+				String[] header = StringUtils.splitPreserveAllTokens(line.substring(HEADER.length() + 1), '\t');
+				manifest.setPakLength(Long.parseLong(header[0]));
+				if (header.length > 1) {
+					manifest.setSettings(header[1]);
+				}
+				while ((line = in.readLine()) != null) {
+					String[] f = StringUtils.splitPreserveAllTokens(line, '\t');
+					if (f.length != 8) {
+						throw new IOException("Corrupt pak manifest line: " + line);
+					}
+					SourceStamp stamp = new SourceStamp(Long.parseLong(f[2]), Long.parseLong(f[3]), f[4]);
+					manifest.add(new Record(f[0], f[1].length() > 0 ? f[1] : null, stamp, parseUnsignedHex(f[5]),
+							Long.parseLong(f[6]), Integer.parseInt(f[7])));
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException("Corrupt pak manifest: " + file);
+			}
+		} finally {
+			in.close();
+		}
+		return manifest;
+	}
+
+	/** Long.parseLong can't take the full unsigned 64 bit range */
+	private static long parseUnsignedHex(String hex) {
+		if (hex.length() > 16) {
+			throw new NumberFormatException(hex);
+		}
+		long value = 0;
+		for (int i = 0; i < hex.length(); i++) {
+			int digit = Character.digit(hex.charAt(i), 16);
+			if (digit < 0) {
+				throw new NumberFormatException(hex);
+			}
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,495 @@
+package packer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import gx.GXFormat;
+import gx.GXTiler;
+
+/**
+ * Reads a GXA1 pak as {@link PakWriter} writes it. The file is memory mapped
+ * in chunks and nothing is read up front besides the header: the lookup
+ * table is searched in place (binary search on the unsigned CRC64 keys) and
+ * an entry is only inflated when its texture is asked for, so paks of any
+ * size open in constant heap. Paks with a {@link BucketIndex} only search
+ * the key's bucket.
+ *
+ * Entry widths and heights are stored divided by 4 in a byte, textures
+ * wider or taller than 1020 come back wrapped around.
+ */
+public class PakReader {
+	/** Size of the header up to the LUT location */
+	public static final int		HEADER_SIZE			= 4 + 64 + 16 + 16 + 12 + 96 * 72 * 2;
+	private static final int	LUT_ENTRY_SIZE		= 12;
+	// Chunks overlap by CHUNK_OVERLAP so a LUT record or entry header is
+	// always inside one of them
+	private static final long	CHUNK_SIZE			= 1L << 30;
+	private static final int	CHUNK_OVERLAP		= 64 * 1024;
+
+	private ByteBuffer[]		chunks;
+	private long				length;
+	private String				description, author, packer, date;
+	private long				tableLocation;
+	private int					numEntries;
+	// Bucket index, where its start[] array is and its size
+	private long				indexLocation;
+	private int					indexBits;
+
+	private PakReader() {
+	}
+
+	/**
+	 * Maps the pak and reads its header
+	 *
+	 * @throws IOException
+	 *             if the file can't be read or isn't a GXA1 pak
+	 */
+	public static PakReader open(File pak) throws IOException {
+		PakReader reader = new PakReader();
+		RandomAccessFile raf = new RandomAccessFile(pak, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			reader.length = channel.size();
+			reader.chunks = new ByteBuffer[(int) ((reader.length + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+			for (int i = 0; i < reader.chunks.length; i++) {
+				long start = i * CHUNK_SIZE;
+				reader.chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(CHUNK_SIZE + CHUNK_OVERLAP, reader.length - start));
+			}
+		} finally {
+			// The mappings stay valid without the file
+			raf.close();
+		}
+		reader.readHeader();
+		return reader;
+	}
+
+	private void readHeader() throws IOException {
+		if (length < HEADER_SIZE + 8 || !getString(0, 4).equals("GXA1")) {
+			throw new IOException("Not a GXA1 pak");
+		}
+		description = getString(4, 64);
+		author = getString(68, 16);
+		packer = getString(84, 16);
+		date = getString(100, 12);
+		tableLocation = getInt(HEADER_SIZE) & 0xFFFFFFFFL;
+		numEntries = getInt(HEADER_SIZE + 4);
+		if (numEntries < 0 || tableLocation + (long) numEntries * LUT_ENTRY_SIZE > length) {
+			throw new IOException("Pak lookup table is outside the file");
+		}
+		if ((getByte(PakWriter.FLAGS_OFFSET) & PakWriter.FLAG_BUCKET_INDEX) != 0) {
+			long index = tableLocation + (long) numEntries * LUT_ENTRY_SIZE;
+			if (index + 4 > length) {
+				throw new IOException("Pak bucket index is outside the file");
+			}
+			indexBits = getInt(index);
+			indexLocation = index + 4;
+			if (indexBits < 1 || indexBits > BucketIndex.MAX_BITS || indexLocation + (((1L << indexBits) + 1) * 4) > length) {
+				throw new IOException("Pak bucket index is invalid");
+			}
+		}
+	}
+
+	private String getString(long position, int size) {
+		byte[] bytes = new byte[size];
+		get(position, bytes);
+		int end = 0;
+		while (end < size && bytes[end] != 0) {
+			end++;
+		}
+		return new String(bytes, 0, end);
+	}
+
+	private ByteBuffer chunk(long position) {
+		return chunks[(int) (position / CHUNK_SIZE)];
+	}
+
+	private int getInt(long position) {
+		return chunk(position).getInt((int) (position % CHUNK_SIZE));
+	}
+
+	private long getLong(long position) {
+		return chunk(position).getLong((int) (position % CHUNK_SIZE));
+	}
+
+	private int getByte(long position) {
+		return chunk(position).get((int) (position % CHUNK_SIZE)) & 0xFF;
+	}
+
+	private void get(long position, byte[] bytes) {
+		ByteBuffer buffer = chunk(position).duplicate();
+		buffer.position((int) (position % CHUNK_SIZE));
+		buffer.get(bytes);
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public String getAuthor() {
+		return author;
+	}
+
+	public String getPacker() {
+		return packer;
+	}
+
+	/** @return The build date, yyyy/MM/dd */
+	public String getDate() {
+		return date;
+	}
+
+	/** @return The 96x72 banner icon, RGB5A3 */
+	public byte[] getIcon() {
+		byte[] icon = new byte[96 * 72 * 2];
+		get(HEADER_SIZE - icon.length, icon);
+		return icon;
+	}
+
+	public boolean hasBucketIndex() {
+		return indexBits > 0;
+	}
+
+	/** @return Number of CRC64 bits the buckets are picked by, 0 without an index */
+	public int getBucketBits() {
+		return indexBits;
+	}
+
+	/** @return The number of LUT entries */
+	public int size() {
+		return numEntries;
+	}
+
+	/** @return The CRC64 of LUT entry i, see {@link ArchiveEntryMeta#getCRC64()} */
+	public long getKey(int i) {
+		return getLong(tableLocation + (long) i * LUT_ENTRY_SIZE);
+	}
+
+	/** @return The offset of LUT entry i's entry */
+	public long getOffset(int i) {
+		return getInt(tableLocation + (long) i * LUT_ENTRY_SIZE + 8) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Binary search on the LUT, which is sorted by unsigned key, or on the
+	 * key's bucket if the pak has an index
+	 *
+	 * @return The index of the key, or (-(insertion point) - 1) if it isn't
+	 *         there
+	 */
+	public int find(long crc64) {
+		long key = crc64 + Long.MIN_VALUE;
+		int low = 0, high = numEntries - 1;
+		if (indexBits > 0) {
+			long start = indexLocation + BucketIndex.getBucket(crc64, indexBits) * 4L;
+			low = getInt(start);
+			high = getInt(start + 4) - 1;
+			if (low < 0 || high >= numEntries) {
+				low = 0;
+				high = numEntries - 1;
+			}
+		}
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midKey = getKey(mid) + Long.MIN_VALUE;
+			if (midKey < key) {
+				low = mid + 1;
+			} else if (midKey > key) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/** @return The entry with the CRC64, or null if there is none */
+	public Entry getEntry(long crc64) throws IOException {
+		int i = find(crc64);
+		return i >= 0 ? getEntry(i) : null;
+	}
+
+	/** @return The entry of LUT entry i */
+	public Entry getEntry(int i) throws IOException {
+		return new Entry(getKey(i), getOffset(i));
+	}
+
+	/**
+	 * Releases the mappings, the reader and its entries can't be used after
+	 * this
+	 */
+	public void close() {
+		chunks = null;
+	}
+
+	/**
+	 * An entry's header, its texture is only read and inflated by
+	 * {@link #openTexture()} / {@link #readTexture()}
+	 */
+	public class Entry {
+		private long	crc64, offset;
+		private int		width, height, gxFormat, flags, mipLevels;
+
+		private Entry(long crc64, long offset) throws IOException {
+			if (offset + 4 > length) {
+				throw new IOException("Entry " + Long.toHexString(crc64).toUpperCase() + " is outside the file");
+			}
+			this.crc64 = crc64;
+			this.offset = offset;
+			width = getByte(offset) * 4;
+			height = getByte(offset + 1) * 4;
+			int formatByte = getByte(offset + 2);
+			gxFormat = formatByte & 0x0F;
+			flags = formatByte & 0xF0;
+			mipLevels = (flags & ArchiveEntryMeta.FLAG_MIPMAPS) != 0 ? getByte(offset + 3) : 1;
+		}
+
+		public long getCRC64() {
+			return crc64;
+		}
+
+		/** @return Where the entry's header starts in the pak */
+		public long getOffset() {
+			return offset;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		/** @return One of the GXFormat constants */
+		public int getGXFormat() {
+			return gxFormat;
+		}
+
+		/** @return The top bits of gx_fmt, Compressor.FLAG_* and mipmaps */
+		public int getFlags() {
+			return flags;
+		}
+
+		/** @return Levels in the texture, the base level included */
+		public int getMipLevels() {
+			return mipLevels;
+		}
+
+		/**
+		 * @return false if the header doesn't tell the texture's size: a
+		 *         side of 1024 or more wraps to 0 in the u8 width / 4 or
+		 *         height / 4
+		 */
+		public boolean hasKnownSize() {
+			return width > 0 && height > 0;
+		}
+
+		private long getDataOffset() {
+			return offset + (mipLevels > 1 ? 4 : 3);
+		}
+
+		/**
+		 * @return The texture as the GX expects it, inflated as it is read
+		 * @throws IOException
+		 *             Also for a stored texture whose size isn't known, see
+		 *             {@link #hasKnownSize()}
+		 */
+		public InputStream openTexture() throws IOException {
+			if ((flags & Compressor.FLAG_STORED) != 0) {
+				if (!hasKnownSize()) {
+					throw new IOException("Stored entry of unknown size");
+				}
+				return new MappedInputStream(getDataOffset(), getStoredSize());
+			}
+			MappedInputStream in = new MappedInputStream(getDataOffset());
+			boolean gzip = (flags & Compressor.FLAG_RAW_DEFLATE) == 0;
+			if (gzip) {
+				skipGZIPHeader(in);
+			}
+			return new EntryInputStream(in, gzip);
+		}
+
+		/**
+		 * @return The whole texture, inflated to the end of its data even if
+		 *         that is more than its header says
+		 */
+		public byte[] readTexture() throws IOException {
+			InputStream in = openTexture();
+			try {
+				// Grown as needed, a texture of unknown size starts out empty
+				byte[] texture = new byte[Math.max(getSize(0), 4096)];
+				int n = 0, read;
+				while ((read = in.read(texture, n, texture.length - n)) > 0) {
+					n += read;
+					if (n == texture.length) {
+						texture = Arrays.copyOf(texture, texture.length * 2 + 1);
+					}
+				}
+				return Arrays.copyOf(texture, n);
+			} finally {
+				in.close();
+			}
+		}
+
+		/**
+		 * @return The size of the inflated texture according to its format,
+		 *         CI textures are partly inflated to find their TLUT size
+		 */
+		public int getTextureSize() throws IOException {
+			if (gxFormat != GXFormat.CI4 && gxFormat != GXFormat.CI8) {
+				return getSize(0);
+			}
+			// u16 tlut_fmt, u16 tlut_count, u16 tlut[tlut_count]
+			InputStream in = (flags & Compressor.FLAG_STORED) != 0 ? new MappedInputStream(getDataOffset(), 4)
+					: openTexture();
+			try {
+				for (int i = 0; i < 2; i++) {
+					readByte(in);
+				}
+				int count = (readByte(in) << 8) | readByte(in);
+				return getSize(4 + count * 2);
+			} finally {
+				in.close();
+			}
+		}
+
+		/** Stored textures aren't framed, their size follows from the format */
+		private long getStoredSize() throws IOException {
+			return getTextureSize();
+		}
+
+		/** @return The size of all levels plus the TLUT header */
+		private int getSize(int tlutSize) {
+			int size = tlutSize;
+			for (int level = 0; level < mipLevels; level++) {
+				size += GXTiler.getSize(gxFormat, width >> level, height >> level);
+			}
+			return size;
+		}
+	}
+
+	/**
+	 * Inflates an entry, deflate data ends by itself so whatever follows it
+	 * isn't read. The CRC32 and size in the trailer of gzip entries are
+	 * checked at the end, raw deflate entries have no checksum.
+	 */
+	private class EntryInputStream extends InflaterInputStream {
+		private MappedInputStream	mapped;
+		private boolean				gzip;
+		private CRC32				crc	= new CRC32();
+
+		EntryInputStream(MappedInputStream in, boolean gzip) {
+			super(in, new Inflater(true));
+			this.mapped = in;
+			this.gzip = gzip;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				crc.update(b, off, n);
+			} else if (n < 0 && gzip) {
+				// The trailer starts where the inflater stopped
+				gzip = false;
+				long trailer = mapped.position - inf.getRemaining();
+				if (trailer + 8 > length || getIntLE(trailer) != (int) crc.getValue()
+						|| getIntLE(trailer + 4) != (int) inf.getBytesWritten()) {
+					throw new ZipException("Entry fails its CRC check");
+				}
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			inf.end();
+		}
+	}
+
+	private int getIntLE(long position) {
+		return getByte(position) | getByte(position + 1) << 8 | getByte(position + 2) << 16 | getByte(position + 3) << 24;
+	}
+
+	/** GZIPOutputStream's 10 byte header, plus any optional fields */
+	private static void skipGZIPHeader(InputStream in) throws IOException {
+		if (readByte(in) != 0x1F || readByte(in) != 0x8B || readByte(in) != 8) {
+			throw new IOException("Entry is not gzip compressed");
+		}
+		int flags = readByte(in);
+		for (int i = 0; i < 6; i++) {
+			readByte(in);
+		}
+		if ((flags & 4) != 0) {
+			int extra = readByte(in) | (readByte(in) << 8);
+			for (int i = 0; i < extra; i++) {
+				readByte(in);
+			}
+		}
+		for (int field = 8; field <= 16; field <<= 1) {
+			// File name and comment are zero terminated
+			if ((flags & field) != 0) {
+				while (readByte(in) != 0) {
+				}
+			}
+		}
+		if ((flags & 2) != 0) {
+			readByte(in);
+			readByte(in);
+		}
+	}
+
+	private static int readByte(InputStream in) throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Entry ends early");
+		}
+		return b;
+	}
+
+	/** Reads the mapped pak from a position on, across chunks */
+	private class MappedInputStream extends InputStream {
+		private long	position, end;
+
+		MappedInputStream(long position) {
+			this(position, length - position);
+		}
+
+		MappedInputStream(long position, long size) {
+			this.position = position;
+			this.end = Math.min(length, position + size);
+		}
+
+		@Override
+		public int read() {
+			return position < end ? getByte(position++) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (position >= end) {
+				return -1;
+			}
+			// Stay within the chunk (without its overlap)
+			long chunkEnd = (position / CHUNK_SIZE + 1) * CHUNK_SIZE;
+			int n = (int) Math.min(len, Math.min(end, chunkEnd) - position);
+			ByteBuffer buffer = chunk(position).duplicate();
+			buffer.position((int) (position % CHUNK_SIZE));
+			buffer.get(b, off, n);
+			position += n;
+			return n;
+		}
+	}
+}
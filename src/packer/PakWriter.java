@@ -0,0 +1,414 @@
+package packer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Date;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+
+import util.Log;
+
+/**
+ * Writes the pak file itself (header, entries and LUT), see {@link Archiver}
+ * for the layout. Has no GUI dependencies so it can be driven headless.
+ *
+ * Everything goes through one large buffer and is written to the file
+ * channel in big chunks; the writer keeps track of its position itself and
+ * only patches the header's table location once the LUT is written.
+ */
+public class PakWriter {
+
+	/** Size of the write buffer, entries larger than it bypass it */
+	public static final int			BUFFER_SIZE		= 4 * 1024 * 1024;
+	/** The last byte of the date field, always zero in older paks */
+	public static final int			FLAGS_OFFSET	= 4 + 64 + 16 + 16 + 11;
+	/** A {@link BucketIndex} follows the LUT */
+	public static final int			FLAG_BUCKET_INDEX	= 0x01;
+
+	private File					outputArchive;
+
+	private RandomAccessFile		raf;
+	private FileChannel				channel;
+	private ByteBuffer				buffer;
+	// Where the next byte goes, the buffer's contents included
+	private long					position		= 0;
+	private LookupTable				lookupTable;
+	private int						numAdded		= 0;
+	private long					tableLocPtr		= 0;
+	// The entries written so far, with their content hashes
+	private EntryTable				entries;
+	private boolean					deduplicate		= true;
+	private int						numDuplicates	= 0;
+	private long					bytesSaved		= 0;
+	private boolean					writeBucketIndex	= false;
+	private BucketIndex				bucketIndex;
+
+	public PakWriter(File outputArchive) throws IOException {
+		this.outputArchive = outputArchive;
+		lookupTable = new LookupTable();
+		entries = new EntryTable();
+		raf = new RandomAccessFile(outputArchive, "rw");
+		channel = raf.getChannel();
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+
+	/**
+	 * Reserves space for the pak up front, so a large pak doesn't have to
+	 * grow the file with every write. The file is cut to its real size when
+	 * the pak is finalized.
+	 *
+	 * @param size
+	 *            Expected size of the pak in bytes
+	 */
+	public void preallocate(long size) throws IOException {
+		if (size > raf.length()) {
+			raf.setLength(size);
+		}
+	}
+
+	/** Initialize the pak by writing the header and skipping to 0x20 */
+	public void initializePak(String description, String author, String packer, BufferedImage icon) throws IOException {
+		String magic = "GXA1";
+		write(magic.getBytes());
+		write(Arrays.copyOf(description.getBytes(), 64));
+		write(Arrays.copyOf(author.getBytes(), 16));
+		write(Arrays.copyOf(packer.getBytes(), 16));
+		SimpleDateFormat format = new SimpleDateFormat("yyyy/MM/dd");
+		String date = format.format(new Date(System.currentTimeMillis()));
+		write(Arrays.copyOf(date.getBytes(), 12));
+		if (icon != null) {
+			write(convertPakIconToRGB5A3(icon));
+		} else {
+			write(new byte[96 * 72 * 2]);
+		}
+		tableLocPtr = position;
+		// Leave room for LUT location + number of entries in the file, filled
+		// in by finalizePak()
+		write(new byte[8]);
+	}
+
+	/**
+	 * Sort the CRC table by lowest to highest CRC, update the header and
+	 * finally write the table, followed by the bucket index if there is one.
+	 * The index is checked against the LUT by reading the pak back.
+	 */
+	public void finalizePak() throws IOException {
+		int numDropped = lookupTable.sort();
+		if (numDropped > 0) {
+			Log.info("Dropped " + numDropped + " LUT entries with a duplicate CRC64");
+		}
+		// 4 byte align the TOC
+		align(4);
+		long tableLoc = position;
+		for (int i = 0; i < lookupTable.size(); i++) {
+			reserve(12);
+			buffer.putLong(lookupTable.getKey(i));
+			buffer.putInt((int) lookupTable.getOffset(i));
+			position += 12;
+		}
+		if (writeBucketIndex) {
+			bucketIndex = BucketIndex.build(lookupTable);
+			reserve(4);
+			buffer.putInt(bucketIndex.getBits());
+			position += 4;
+			for (int bucket = 0; bucket <= bucketIndex.getNumBuckets(); bucket++) {
+				reserve(4);
+				buffer.putInt(bucketIndex.getStart(bucket));
+				position += 4;
+			}
+		}
+		flush();
+		channel.truncate(position);
+
+		ByteBuffer header = ByteBuffer.allocate(8);
+		header.putInt((int) tableLoc);
+		header.putInt(lookupTable.size());
+		header.flip();
+		while (header.hasRemaining()) {
+			channel.write(header, tableLocPtr + header.position());
+		}
+		if (bucketIndex != null) {
+			channel.write(ByteBuffer.wrap(new byte[] { FLAG_BUCKET_INDEX }), FLAGS_OFFSET);
+		}
+		raf.close();
+		if (bucketIndex != null) {
+			verifyBucketIndex();
+		}
+	}
+
+	/** Looks every LUT entry up through the index of the finished pak */
+	private void verifyBucketIndex() throws IOException {
+		PakReader reader = PakReader.open(outputArchive);
+		try {
+			if (!reader.hasBucketIndex() || reader.size() != lookupTable.size()) {
+				throw new IOException("Bucket index wasn't written");
+			}
+			for (int i = 0; i < lookupTable.size(); i++) {
+				if (reader.find(lookupTable.getKey(i)) != i) {
+					throw new IOException("Bucket index doesn't match the LUT at entry " + i);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/** Closes the pak without finalizing it, e.g. after a failed build */
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	/**
+	 * Adds an entry to the zipped stream and updates the LUT. An entry that is
+	 * identical to one already in the pak only gets a LUT entry pointing at
+	 * the existing copy.
+	 *
+	 * The entry is recorded in the {@link EntryTable} under its sequence
+	 * number, which has to be unique, an entry aliasing another one through
+	 * {@link ArchiveEntry#getAliasOf()} can only be added once that one is.
+	 *
+	 * @throws IOException
+	 *             If the entry can't be written, the pak can't be finished
+	 *             then since part of the entry may be in the file already
+	 */
+	public void addEntry(ArchiveEntry entry) throws IOException {
+		ArchiveEntryMeta meta = entry.getMeta();
+		long existing = -1;
+		int original = entry.getAliasOf();
+		if (original >= 0) {
+			// Same source files as an entry we already wrote
+			if (!entries.contains(original)) {
+				throw new IllegalStateException("Entry " + original + " isn't in the pak");
+			}
+			int formatByte = entries.getFormatByte(original);
+			meta.setWidth(entries.getWidth(original));
+			meta.setHeight(entries.getHeight(original));
+			meta.setGXFormat((short) (formatByte & 0x0F));
+			meta.setEntryFlags(formatByte & 0xF0 & ~ArchiveEntryMeta.FLAG_MIPMAPS);
+			meta.setMipLevels(entries.getMipLevels(original));
+			meta.setCompressedLength(entries.getLength(original) - meta.getHeaderLength());
+			existing = entries.getOffset(original);
+		} else if (deduplicate && entry.getEntryDigest() != null) {
+			int first = entries.findDigest(entry.getEntryDigest());
+			if (first >= 0) {
+				existing = entries.getOffset(first);
+			}
+		}
+		if (existing >= 0) {
+			meta.setOffset(existing);
+			lookupTable.add(meta.getCRC64(), existing);
+			entries.add(entry.getSequence(), meta, existing, getEntryLength(entry));
+			numDuplicates++;
+			bytesSaved += getEntryLength(entry);
+			Log.info(meta.toString() + "\nDuplicate stored at offset " + existing);
+			numAdded++;
+			return;
+		}
+
+		// 4 byte align the file entry
+		align(4);
+		// Update the Entry Meta with our current File Pointer
+		entry.getMeta().setOffset(position);
+
+		// Add it to our LUT
+		lookupTable.add(entry.getMeta().getCRC64(), entry.getMeta().getOffset());
+
+		// Write out the Actual Entry (Width+Height+Format[+Levels]+GXTexture)
+		reserve(entry.getMeta().getHeaderLength());
+		buffer.put(new Integer(entry.getMeta().getWidth() / 4).byteValue());
+		buffer.put(new Integer(entry.getMeta().getHeight() / 4).byteValue());
+		buffer.put(entry.getMeta().getFormatByte());
+		if (entry.getMeta().getMipLevels() > 1) {
+			buffer.put((byte) entry.getMeta().getMipLevels());
+		}
+		position += entry.getMeta().getHeaderLength();
+		write(entry.getGXTexture());
+		entries.add(entry.getSequence(), meta, meta.getOffset(), getEntryLength(entry));
+		if (deduplicate && entry.getEntryDigest() != null) {
+			entries.putDigest(entry.getSequence(), entry.getEntryDigest());
+		}
+
+		// Update the log window
+		Log.info(entry.getMeta().toString());
+		numAdded++;
+	}
+
+	/** Pads with zeroes up to the next multiple of alignment */
+	private void align(int alignment) throws IOException {
+		int padding = (int) ((alignment - (position % alignment)) % alignment);
+		if (padding != 0) {
+			reserve(padding);
+			for (int i = 0; i < padding; i++) {
+				buffer.put((byte) 0);
+			}
+			position += padding;
+		}
+	}
+
+	/** Makes sure the buffer has room for at least the given number of bytes */
+	private void reserve(int length) throws IOException {
+		if (buffer.remaining() < length) {
+			flush();
+		}
+	}
+
+	/**
+	 * Buffers the data, data that doesn't fit is written straight from the
+	 * array together with whatever is buffered
+	 */
+	private void write(byte[] data) throws IOException {
+		if (data.length <= buffer.remaining()) {
+			buffer.put(data);
+		} else {
+			buffer.flip();
+			ByteBuffer[] buffers = new ByteBuffer[] { buffer, ByteBuffer.wrap(data) };
+			while (buffers[1].hasRemaining()) {
+				channel.write(buffers);
+			}
+			buffer.clear();
+		}
+		position += data.length;
+	}
+
+	/** Writes out whatever is buffered */
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * @return The number of bytes the entry takes up in the pak, header
+	 *         included
+	 */
+	public int getEntryLength(ArchiveEntry entry) {
+		return entry.getMeta().getHeaderLength() + entry.getMeta().getCompressedLength();
+	}
+
+	/**
+	 * @param deduplicate
+	 *            Whether entries identical to an earlier one share its data
+	 */
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
+	}
+
+	/**
+	 * @return The number of LUT entries that share data with an earlier entry
+	 */
+	public int getNumDuplicates() {
+		return numDuplicates;
+	}
+
+	/**
+	 * @return The bytes that weren't written thanks to duplicates
+	 */
+	public long getBytesSaved() {
+		return bytesSaved;
+	}
+
+	public int getNumAdded() {
+		return numAdded;
+	}
+
+	/** @return The entries added so far, by sequence number */
+	public EntryTable getEntryTable() {
+		return entries;
+	}
+
+	/** @return Bytes written to the pak so far, header included */
+	public long getLength() {
+		return position;
+	}
+
+	/**
+	 * @param writeBucketIndex
+	 *            Whether a {@link BucketIndex} is written after the LUT
+	 */
+	public void setBucketIndex(boolean writeBucketIndex) {
+		this.writeBucketIndex = writeBucketIndex;
+	}
+
+	public void printStats() {
+		Log.info("Entries added: " + numAdded);
+		Log.info("Duplicate entries: " + numDuplicates + " (" + bytesSaved + " bytes saved)");
+		Log.info("Entry table: " + entries.size() + " entries in " + (entries.getMemoryUsage() / 1024) + " KB");
+		if (bucketIndex != null) {
+			bucketIndex.printStats();
+		}
+	}
+
+	public static final byte[] longToBytes(long v) {
+		byte[] writeBuffer = new byte[8];
+
+		writeBuffer[0] = (byte) (v >>> 56);
+		writeBuffer[1] = (byte) (v >>> 48);
+		writeBuffer[2] = (byte) (v >>> 40);
+		writeBuffer[3] = (byte) (v >>> 32);
+		writeBuffer[4] = (byte) (v >>> 24);
+		writeBuffer[5] = (byte) (v >>> 16);
+		writeBuffer[6] = (byte) (v >>> 8);
+		writeBuffer[7] = (byte) (v >>> 0);
+
+		return writeBuffer;
+	}
+
+	/**
+	 * RGB5A3
+	 *
+	 * The RGB5A3 format is used for storing either 15 bit color values without
+	 * alpha, or 12 bit color values with a 3 bit alpha channel. The top bit is
+	 * used to decide between the two. If the top bit is set, the alpha channel
+	 * is used.
+	 *
+	 * Conversion to RGBA is achieved by checking the top bit, and if it is not
+	 * set, setting A to 0x20 multiplied by the next 3 bits, and then setting R,
+	 * G and B in that order to the next 4 bits multiplied by 0x11 in each case.
+	 * If the top bit is set, the conversion is done by setting R, G and B in
+	 * that order to the next 5 bits multiplied by 0x8 in each case.
+	 *
+	 * @return
+	 */
+	public static byte[] convertPakIconToRGB5A3(BufferedImage img) {
+		int data[] = null;
+		int h = img.getHeight(), w = img.getWidth(), x = 0, y = 0, color = 0, idx = 0;
+		byte R, G, B, A;
+		short[] RGB5A3_buffer = new short[h * w];
+
+		data = img.getRGB(0, 0, w, h, data, 0, w);
+		for (int i = 0; i < h; i += 4) {
+			for (int j = 0; j < w; j += 4) {
+				for (int ii = 0; ii < 4; ii++) {
+					for (int jj = 0; jj < 4; jj++) {
+						x = j + jj;
+						y = i + ii;
+						color = data[(int) ((y * w) + x)];
+						R = (byte) ((color >> 16) & 0xFF);
+						G = (byte) ((color >> 8) & 0xFF);
+						B = (byte) ((color >> 0) & 0xFF);
+						A = (byte) ((color >> 24) & 0xFF);
+						if ((A & 0xE0) != 0xE0) {
+							RGB5A3_buffer[idx] = (short) (((A >> 5) << 12) | ((R >> 4) << 8) | ((G >> 4) << 4) | (B >> 4));
+						} else {
+							RGB5A3_buffer[idx] = (short) (0x8000 | ((R >> 3) << 10) | ((G >> 3) << 5) | (B >> 3));
+						}
+						idx++;
+					}
+				}
+			}
+		}
+
+		byte[] gxTexture = new byte[RGB5A3_buffer.length*2];
+		for (int i = 0; i < RGB5A3_buffer.length; i++) {
+			gxTexture[i * 2] = (byte) (RGB5A3_buffer[i] >> 8);
+			gxTexture[(i * 2) + 1] = (byte) (RGB5A3_buffer[i] & 0xFF);
+		}
+		return gxTexture;
+	}
+}
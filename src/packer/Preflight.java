@@ -0,0 +1,203 @@
+package packer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import png.PngHeader;
+import util.Log;
+
+/**
+ * Checks every texture of a build from its PNG headers alone, on a pool of
+ * threads, before anything is converted: that the PNGs can be read, that an
+ * _a file is as large as its _rgb file and that the size fits the entry
+ * header. Also adds up what the build will take: pixels, RGBA8 bytes before
+ * compression and the largest working set against the memory budget.
+ *
+ * A texture that fails would otherwise stop the build once its turn to be
+ * converted comes, possibly hours in.
+ */
+public class Preflight {
+	/** Largest width and height the u8 width / 4 of an entry header holds */
+	public static final int	MAX_DIMENSION	= 255 * 4;
+
+	/** What the headers say about one texture */
+	private static class Result {
+		String	error;
+		String	warning;
+		long	pixels;
+		long	gxBytes;
+		long	estimate;
+		boolean	imageIO;
+	}
+
+	private int					threadCount;
+	private long				memoryBudget;
+	private volatile boolean	cancelled	= false;
+
+	private int					numChecked, numFailed, numWarnings, numImageIO;
+	private long				totalPixels, totalGXBytes, largestEstimate;
+	private ArchiveEntry		largestEntry;
+
+	/**
+	 * @param threadCount
+	 *            Number of textures checked at once
+	 * @param memoryBudget
+	 *            The build's in-flight byte budget, see {@link EntryPipeline}
+	 */
+	public Preflight(int threadCount, long memoryBudget) {
+		this.threadCount = Math.max(threadCount, 1);
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Checks the entries' PNGs, logs what is wrong with them and adds the
+	 * ones that fail to the report
+	 *
+	 * @param report
+	 *            Gets the entries that fail, may be null
+	 * @param listener
+	 *            Gets progress messages, may be null
+	 * @return The entries that passed, in order, or null if cancelled
+	 */
+	public List<ArchiveEntry> check(List<ArchiveEntry> entries, QuarantineReport report,
+			PakBuilder.ProgressListener listener) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			private AtomicInteger	count	= new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Preflight Thread " + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			List<Future<Result>> results = new ArrayList<Future<Result>>(entries.size());
+			for (final ArchiveEntry entry : entries) {
+				results.add(pool.submit(new Callable<Result>() {
+
+					@Override
+					public Result call() {
+						return cancelled ? null : check(entry);
+					}
+				}));
+			}
+			List<ArchiveEntry> passed = new ArrayList<ArchiveEntry>(entries.size());
+			for (int i = 0; i < entries.size(); i++) {
+				Result result = results.get(i).get();
+				if (result == null || cancelled) {
+					return null;
+				}
+				ArchiveEntry entry = entries.get(i);
+				add(entry, result);
+				if (result.error != null) {
+					Log.info("Preflight: " + entry.getPrimaryFile().getPath() + ": " + result.error);
+					if (report != null) {
+						report.add(QuarantineReport.PREFLIGHT, entry, result.error);
+					}
+				} else {
+					if (result.warning != null) {
+						Log.info("Preflight: " + entry.getPrimaryFile().getPath() + ": " + result.warning);
+					}
+					passed.add(entry);
+				}
+				if (listener != null) {
+					listener.progress("Preflight: " + (i + 1) + " of " + entries.size() + " checked, " + numFailed
+							+ " failed");
+				}
+			}
+			return passed;
+		} catch (ExecutionException e) {
+			// check() catches its own I/O errors
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static Result check(ArchiveEntry entry) {
+		Result result = new Result();
+		PngHeader primary, alpha = null;
+		try {
+			primary = PngHeader.read(entry.getPrimaryFile());
+		} catch (IOException e) {
+			result.error = "Can't read the texture: " + e.getMessage();
+			return result;
+		}
+		// The _a file only counts if the texture has no alpha of its own
+		if (entry.getAlphaFile() != null && !primary.hasAlpha()) {
+			try {
+				alpha = PngHeader.read(entry.getAlphaFile());
+			} catch (IOException e) {
+				result.error = "Can't read " + entry.getAlphaFile().getName() + ": " + e.getMessage();
+				return result;
+			}
+			if (alpha.getWidth() != primary.getWidth() || alpha.getHeight() != primary.getHeight()) {
+				result.error = "The alpha file is " + alpha.getWidth() + "x" + alpha.getHeight() + ", the texture "
+						+ primary.getWidth() + "x" + primary.getHeight();
+				return result;
+			}
+		}
+
+		int width = primary.getWidth(), height = primary.getHeight();
+		if (width > MAX_DIMENSION || height > MAX_DIMENSION) {
+			result.warning = width + "x" + height + " is larger than an entry header holds (" + MAX_DIMENSION + "x"
+					+ MAX_DIMENSION + ")";
+		} else if (width % 4 != 0 || height % 4 != 0) {
+			result.warning = width + "x" + height
+					+ " isn't a multiple of 4, the pixels past the last whole tile are cut";
+		}
+		result.pixels = primary.getPixelCount();
+		// GXTiler.getRGBA8Size() in a long
+		result.gxBytes = (long) (width - width % 4) * (height - height % 4) * 4;
+		result.estimate = entry.estimateMemoryUsage(result.pixels, alpha != null ? alpha.getPixelCount() : 0);
+		result.imageIO = !primary.isDecodable() || (alpha != null && !alpha.isDecodable());
+		return result;
+	}
+
+	private void add(ArchiveEntry entry, Result result) {
+		numChecked++;
+		if (result.error != null) {
+			numFailed++;
+			return;
+		}
+		numWarnings += result.warning != null ? 1 : 0;
+		numImageIO += result.imageIO ? 1 : 0;
+		totalPixels += result.pixels;
+		totalGXBytes += result.gxBytes;
+		if (result.estimate > largestEstimate) {
+			largestEstimate = result.estimate;
+			largestEntry = entry;
+		}
+	}
+
+	/** Stops a running check from any thread, it then returns null */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/** @return The number of textures that failed the last check */
+	public int getNumFailed() {
+		return numFailed;
+	}
+
+	public void printStats() {
+		Log.info("Preflight: " + numChecked + " textures checked, " + numFailed + " failed, " + numWarnings
+				+ " warnings, " + numImageIO + " to be decoded through ImageIO");
+		Log.info("Preflight: " + String.format("%.1f", totalPixels / 1e6) + " megapixels, "
+				+ (totalGXBytes / (1024 * 1024)) + " MB as RGBA8 before compression");
+		if (largestEntry != null) {
+			Log.info("Preflight: largest working set " + (largestEstimate / 1024) + " KB ("
+					+ largestEntry.getPrimaryFile().getName() + ")"
+					+ (largestEstimate > memoryBudget ? ", over the memory budget, it is converted alone" : ""));
+		}
+	}
+}
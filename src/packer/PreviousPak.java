@@ -0,0 +1,119 @@
+package packer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import util.Log;
+
+/**
+ * A pak from an earlier build together with its {@link PakManifest}, used
+ * for incremental repacks: entries whose sources didn't change are read back
+ * from it as they are instead of being converted again.
+ *
+ * Safe to use from several converter threads at once.
+ */
+public class PreviousPak {
+	private File							textureRoot;
+	private RandomAccessFile				raf;
+	private FileChannel						channel;
+	private Map<String, PakManifest.Record>	records;
+	private AtomicInteger					numReused	= new AtomicInteger(0);
+
+	private PreviousPak(File pak, PakManifest manifest, File textureRoot) throws IOException {
+		this.textureRoot = textureRoot;
+		this.records = manifest.getRecordsByPath();
+		this.raf = new RandomAccessFile(pak, "r");
+		this.channel = raf.getChannel();
+	}
+
+	/**
+	 * Opens a previous pak and its manifest.
+	 *
+	 * @param settings
+	 *            The conversion settings of this build, see
+	 *            {@link PakBuilder#getSettings()}
+	 * @return null if there is no usable manifest for the pak or it was built
+	 *         with other settings, in which case everything has to be rebuilt
+	 */
+	public static PreviousPak open(File pak, File textureRoot, String settings) {
+		File manifestFile = PakManifest.getManifestFile(pak);
+		if (!pak.isFile() || !manifestFile.isFile()) {
+			Log.info("No previous pak/manifest found at " + pak.getPath() + ", rebuilding everything");
+			return null;
+		}
+		try {
+			PakManifest manifest = PakManifest.load(manifestFile);
+			if (manifest.getPakLength() != pak.length()) {
+				Log.info("Manifest " + manifestFile.getPath() + " doesn't match its pak, rebuilding everything");
+				return null;
+			}
+			if (!settings.equals(manifest.getSettings())) {
+				String previous = manifest.getSettings() != null ? manifest.getSettings() : "not recorded";
+				Log.info("Previous pak was built with other settings (" + previous + ", now " + settings
+						+ "), rebuilding everything");
+				return null;
+			}
+			return new PreviousPak(pak, manifest, textureRoot);
+		} catch (IOException e) {
+			Log.info("Failed to read " + manifestFile.getPath() + ": " + e.getMessage() + ", rebuilding everything");
+			return null;
+		}
+	}
+
+	/**
+	 * Looks the entry's sources up in the manifest and, when they are
+	 * unchanged, fills the entry from the previous pak. An entry whose size or
+	 * modification time changed is only reused if its content hash still
+	 * matches.
+	 *
+	 * @return true if the entry was reused and needs no processing
+	 */
+	public boolean reuse(ArchiveEntry entry) throws IOException {
+		PakManifest.Record record = records.get(PakManifest.relativize(textureRoot, entry.getPrimaryFile()));
+		if (record == null) {
+			return false;
+		}
+		String alphaPath = entry.getAlphaFile() != null ? PakManifest.relativize(textureRoot, entry.getAlphaFile()) : null;
+		if (alphaPath == null ? record.getAlphaPath() != null : !alphaPath.equals(record.getAlphaPath())) {
+			return false;
+		}
+		SourceStamp stamp = entry.getSourceStamp();
+		if (stamp.getSize() != record.getStamp().getSize() || stamp.getModified() != record.getStamp().getModified()) {
+			if (stamp.getDigest() == null) {
+				stamp.setDigest(SourceStamp.digest(entry.getPrimaryFile(), entry.getAlphaFile()));
+			}
+			if (!stamp.getDigest().equals(record.getStamp().getDigest())) {
+				return false;
+			}
+		} else {
+			stamp.setDigest(record.getStamp().getDigest());
+		}
+
+		// Read the whole entry (header + compressed texture) back
+		ByteBuffer buf = ByteBuffer.allocate(record.getLength());
+		long pos = record.getOffset();
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, pos + buf.position()) < 0) {
+				return false;
+			}
+		}
+		if (!entry.reuse(buf.array(), record.getCRC64())) {
+			return false;
+		}
+		numReused.incrementAndGet();
+		return true;
+	}
+
+	public int getNumReused() {
+		return numReused.get();
+	}
+
+	public void close() throws IOException {
+		raf.close();
+	}
+}
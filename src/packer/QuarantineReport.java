@@ -0,0 +1,111 @@
+package packer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The textures left out of a pak because they failed the {@link Preflight}
+ * checks or their conversion, written next to the pak
+ * ("name.pak.quarantine") when there are any.
+ *
+ * Text, one tab separated record per texture: <br>
+ * stage (preflight or convert); source path (relative to the texture dir);
+ * alpha path or empty; reason
+ */
+public class QuarantineReport {
+
+	private static final String	HEADER		= "# GXA1 quarantine 1";
+
+	public static final String	PREFLIGHT	= "preflight";
+	public static final String	CONVERT		= "convert";
+
+	/**
+	 * A texture that was left out and why
+	 */
+	public static class Record {
+		private String	stage;
+		private String	path;
+		private String	alphaPath;
+		private String	reason;
+
+		public Record(String stage, String path, String alphaPath, String reason) {
+			this.stage = stage;
+			this.path = path;
+			this.alphaPath = alphaPath;
+			this.reason = reason;
+		}
+
+		public String getStage() {
+			return stage;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public String getAlphaPath() {
+			return alphaPath;
+		}
+
+		public String getReason() {
+			return reason;
+		}
+	}
+
+	private File			root;
+	private List<Record>	records	= new ArrayList<Record>();
+
+	/**
+	 * @param root
+	 *            The texture directory, paths are written relative to it
+	 */
+	public QuarantineReport(File root) {
+		this.root = root;
+	}
+
+	public static File getReportFile(File pak) {
+		return new File(pak.getPath() + ".quarantine");
+	}
+
+	public synchronized void add(String stage, ArchiveEntry entry, String reason) {
+		String alphaPath = entry.getAlphaFile() != null ? PakManifest.relativize(root, entry.getAlphaFile()) : null;
+		records.add(new Record(stage, PakManifest.relativize(root, entry.getPrimaryFile()), alphaPath, reason));
+	}
+
+	public synchronized List<Record> getRecords() {
+		return new ArrayList<Record>(records);
+	}
+
+	public synchronized int size() {
+		return records.size();
+	}
+
+	/**
+	 * Writes the report, or deletes the one of an earlier build if there is
+	 * nothing to report
+	 */
+	public synchronized void save(File file) throws IOException {
+		if (records.isEmpty()) {
+			if (file.exists() && !file.delete()) {
+				throw new IOException("Failed to delete " + file.getPath());
+			}
+			return;
+		}
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			out.write(HEADER + "\t" + records.size() + "\n");
+			for (Record r : records) {
+				// Reasons are free text, keep them on their line
+				out.write(r.getStage() + "\t" + r.getPath() + "\t" + (r.getAlphaPath() != null ? r.getAlphaPath() : "")
+						+ "\t" + r.getReason().replace('\t', ' ').replace('\r', ' ').replace('\n', ' ') + "\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
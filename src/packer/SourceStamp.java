@@ -0,0 +1,93 @@
+package packer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Identifies the source files of an entry (primary + optional alpha PNG) by
+ * size, modification time and content hash, so an unchanged entry can be
+ * recognised on the next build.
+ */
+public class SourceStamp {
+	private long	size;
+	private long	modified;
+	private String	digest;
+
+	public SourceStamp(long size, long modified, String digest) {
+		this.size = size;
+		this.modified = modified;
+		this.digest = digest;
+	}
+
+	/**
+	 * Stats the source files, the digest is only computed on demand
+	 */
+	public static SourceStamp of(File primaryFile, File alphaFile) {
+		long size = primaryFile.length();
+		long modified = primaryFile.lastModified();
+		if (alphaFile != null) {
+			size += alphaFile.length();
+			modified = Math.max(modified, alphaFile.lastModified());
+		}
+		return new SourceStamp(size, modified, null);
+	}
+
+	/**
+	 * @return SHA-1 over the contents of the primary and alpha file, as hex
+	 */
+	public static String digest(File primaryFile, File alphaFile) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 not available");
+		}
+		byte[] buffer = new byte[64 * 1024];
+		update(md, primaryFile, buffer);
+		if (alphaFile != null) {
+			update(md, alphaFile, buffer);
+		}
+		return toHex(md.digest());
+	}
+
+	private static void update(MessageDigest md, File file, byte[] buffer) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				md.update(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	public static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getModified() {
+		return modified;
+	}
+
+	public String getDigest() {
+		return digest;
+	}
+
+	public void setDigest(String digest) {
+		this.digest = digest;
+	}
+}
@@ -0,0 +1,153 @@
+package packer;
+
+/**
+ * The fields of a Rice hi-res texture file name, which make up the CRC64 the
+ * texture is looked up by:
+ *
+ * GAME#CRC#FMT#SIZE_type.png<br>
+ * GAME#CRC#FMT#SIZE#PALCRC_type.png
+ *
+ * The CRCs are hex, as are the format and size. The name is parsed in a
+ * single pass without copying it, when the texture directory is scanned, so
+ * bad names are turned away and duplicate CRC64s are found before anything
+ * is decoded.
+ */
+public class TextureName {
+	// Rice writes the CRCs as %08X and the format and size as %X
+	private static final int	MAX_CRC_DIGITS		= 8;
+	private static final int	MAX_FIELD_DIGITS	= 4;
+
+	private String				fileName;
+	private long				textureCRC;
+	private long				paletteCRC;
+	private int					format;
+	private int					size;
+	private boolean				blueAlpha;
+	// The type sits between these in fileName
+	private int					typeStart, typeEnd;
+
+	private TextureName() {
+	}
+
+	/**
+	 * @param name
+	 *            The file name, anything up to the last '/' or '\' is skipped
+	 * @throws IllegalArgumentException
+	 *             If it isn't a texture name, with the reason as message
+	 */
+	public static TextureName parse(String name) {
+		TextureName parsed = new TextureName();
+		int start = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1;
+		parsed.fileName = start > 0 ? name.substring(start) : name;
+		String s = parsed.fileName;
+
+		int crcStart = s.indexOf('#') + 1;
+		if (crcStart == 0) {
+			throw new IllegalArgumentException("no '#' after the game name");
+		}
+		int crcEnd = indexOf(s, '#', crcStart, "texture CRC");
+		parsed.textureCRC = parseHex(s, crcStart, crcEnd, MAX_CRC_DIGITS, "texture CRC");
+
+		int formatEnd = indexOf(s, '#', crcEnd + 1, "format");
+		parsed.format = (int) parseHex(s, crcEnd + 1, formatEnd, MAX_FIELD_DIGITS, "format");
+		// Rice dumps format 4 (I) textures with their alpha in the blue channel
+		parsed.blueAlpha = formatEnd == crcEnd + 2 && s.charAt(crcEnd + 1) == '4';
+
+		// The size is followed by the palette CRC or the type
+		int sizeStart = formatEnd + 1;
+		int sizeEnd = sizeStart;
+		while (sizeEnd < s.length() && s.charAt(sizeEnd) != '#' && s.charAt(sizeEnd) != '_') {
+			sizeEnd++;
+		}
+		if (sizeEnd == s.length()) {
+			throw new IllegalArgumentException("no '_' after the size");
+		}
+		parsed.size = (int) parseHex(s, sizeStart, sizeEnd, MAX_FIELD_DIGITS, "size");
+		int typeSeparator = sizeEnd;
+		if (s.charAt(sizeEnd) == '#') {
+			typeSeparator = indexOf(s, '_', sizeEnd + 1, "palette CRC");
+			parsed.paletteCRC = parseHex(s, sizeEnd + 1, typeSeparator, MAX_CRC_DIGITS, "palette CRC");
+		} else {
+			parsed.paletteCRC = -1;
+		}
+
+		parsed.typeStart = typeSeparator + 1;
+		parsed.typeEnd = s.indexOf('.', parsed.typeStart);
+		if (parsed.typeEnd < 0) {
+			parsed.typeEnd = s.length();
+		}
+		return parsed;
+	}
+
+	/** @return The index of c at or after from, ending the field */
+	private static int indexOf(String s, char c, int from, String field) {
+		int index = s.indexOf(c, from);
+		if (index < 0) {
+			throw new IllegalArgumentException("no '" + c + "' after the " + field);
+		}
+		return index;
+	}
+
+	private static long parseHex(String s, int start, int end, int maxDigits, String field) {
+		if (end == start || end - start > maxDigits) {
+			throw new IllegalArgumentException("the " + field + " isn't 1 to " + maxDigits + " hex digits");
+		}
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = Character.digit(s.charAt(i), 16);
+			if (digit < 0) {
+				throw new IllegalArgumentException("the " + field + " isn't hex");
+			}
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	/**
+	 * unsigned int crc32;<br>
+	 * unsigned char pal_crc32_byte1;<br>
+	 * unsigned char pal_crc32_byte2;<br>
+	 * unsigned char pal_crc32_byte3;<br>
+	 * unsigned format : 4;<br>
+	 * unsigned size : 4;
+	 */
+	public static long getCRC64(long textureCRC, long paletteCRC, int format, int size) {
+		return (textureCRC << 32) | (paletteCRC & 0x00000000FFFFFF00L) | ((format & 0xF) << 4) | (size & 0xF);
+	}
+
+	public long getCRC64() {
+		return getCRC64(textureCRC, paletteCRC, format, size);
+	}
+
+	/** @return The name without any directories */
+	public String getFileName() {
+		return fileName;
+	}
+
+	public long getTextureCRC() {
+		return textureCRC;
+	}
+
+	/** @return The palette CRC, -1 if the name has none */
+	public long getPaletteCRC() {
+		return paletteCRC;
+	}
+
+	public int getFormat() {
+		return format;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/** @return all, rgb, a or ciByRGBA */
+	public String getType() {
+		return fileName.substring(typeStart, typeEnd);
+	}
+
+	/** @return Whether alpha comes from the blue channel if the PNG has none */
+	public boolean isBlueAlpha() {
+		return blueAlpha;
+	}
+}
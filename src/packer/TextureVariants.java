@@ -0,0 +1,244 @@
+package packer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import util.Log;
+
+/**
+ * Picks the files that make up the pak out of everything that was scanned.
+ * Rice dumps a texture as NAME_all.png, or as NAME_rgb.png with an optional
+ * NAME_a.png holding its alpha, or as NAME_ciByRGBA.png. An _all file wins
+ * over _rgb/_a files of the same name.
+ *
+ * Files are grouped by name in a single pass, names are compared ignoring
+ * case and the directory they are in. Files whose name can't be parsed as a
+ * {@link TextureName} are left out, as are textures whose CRC64 an earlier
+ * texture of the pak already has, since the loader could never find them.
+ */
+public class TextureVariants {
+
+	/**
+	 * A texture to convert: its file and, for _rgb files, the matching _a file
+	 * if there is one
+	 */
+	public static class Texture {
+		private File		primaryFile;
+		private File		alphaFile;
+		private TextureName	textureName;
+
+		public Texture(File primaryFile, File alphaFile, TextureName textureName) {
+			this.primaryFile = primaryFile;
+			this.alphaFile = alphaFile;
+			this.textureName = textureName;
+		}
+
+		public File getPrimaryFile() {
+			return primaryFile;
+		}
+
+		public File getAlphaFile() {
+			return alphaFile;
+		}
+
+		/** @return The primary file's name, parsed */
+		public TextureName getTextureName() {
+			return textureName;
+		}
+	}
+
+	/** The variants found for one name */
+	private static class Group {
+		File		all;
+		File		rgb;
+		TextureName	rgbName;
+		File		alpha;
+	}
+
+	private List<Texture>			textures			= new ArrayList<Texture>();
+	private int						numDuplicates		= 0;
+	private int						numOrphans			= 0;
+	private int						numInvalid			= 0;
+	private int						numKeyDuplicates	= 0;
+
+	private Map<String, Group>		groups				= new LinkedHashMap<String, Group>();
+	private List<Group>				rgbOrder			= new ArrayList<Group>();
+	private Map<String, Texture>	ciTextures			= new LinkedHashMap<String, Texture>();
+	// The file that has each CRC64 in the pak
+	private Map<Long, File>			keys				= new HashMap<Long, File>();
+
+	/**
+	 * Picks the textures as files are {@link #add(File) added} while the
+	 * directory is being scanned
+	 */
+	public TextureVariants() {
+	}
+
+	/**
+	 * @param files
+	 *            Scanned files, in scan order. The textures come out as all
+	 *            _all files, then the _rgb files without an _all file, then the
+	 *            _ciByRGBA files, each in scan order.
+	 */
+	public TextureVariants(List<File> files) {
+		for (File file : files) {
+			add(file);
+		}
+		finish();
+	}
+
+	/**
+	 * Adds the next scanned file. _all files come first and win over
+	 * everything else of their name, so they can be converted straight
+	 * away.
+	 *
+	 * @return The file as a texture if it is the first _all file of its name
+	 *         and CRC64, else null (other textures are only known after
+	 *         {@link #finish()})
+	 */
+	public Texture add(File file) {
+		String name = file.getName().toLowerCase(Locale.ENGLISH);
+		boolean isCI = name.endsWith("_cibyrgba.png");
+		boolean isAll = !isCI && name.endsWith("_all.png");
+		boolean isRGB = !isCI && !isAll && name.endsWith("_rgb.png");
+		boolean isAlpha = !isCI && !isAll && !isRGB && name.endsWith("_a.png");
+		if (!isCI && !isAll && !isRGB && !isAlpha) {
+			return null;
+		}
+		// Only the name of the file that goes in the pak matters
+		TextureName textureName = null;
+		if (!isAlpha) {
+			try {
+				textureName = TextureName.parse(file.getName());
+			} catch (IllegalArgumentException e) {
+				Log.info("Ignoring " + file.getPath() + ", not a texture name: " + e.getMessage());
+				numInvalid++;
+				return null;
+			}
+		}
+		if (isCI) {
+			Texture first = ciTextures.get(name);
+			if (first != null) {
+				duplicate(file, first.getPrimaryFile());
+			} else {
+				ciTextures.put(name, new Texture(file, null, textureName));
+			}
+			return null;
+		}
+		String key = name.substring(0, name.lastIndexOf('_'));
+		Group group = groups.get(key);
+		if (group == null) {
+			group = new Group();
+			groups.put(key, group);
+		}
+		if (isAll) {
+			if (group.all != null) {
+				duplicate(file, group.all);
+			} else {
+				group.all = file;
+				return claimKey(new Texture(file, null, textureName));
+			}
+		} else if (isRGB) {
+			if (group.rgb != null) {
+				duplicate(file, group.rgb);
+			} else {
+				group.rgb = file;
+				group.rgbName = textureName;
+				rgbOrder.add(group);
+			}
+		} else {
+			if (group.alpha != null) {
+				duplicate(file, group.alpha);
+			} else {
+				group.alpha = file;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Call once every file is added
+	 *
+	 * @return The textures that follow the _all files: the _rgb files without
+	 *         an _all file, then the _ciByRGBA files
+	 */
+	public List<Texture> finish() {
+		List<Texture> rest = new ArrayList<Texture>();
+		for (Group group : rgbOrder) {
+			if (group.all == null) {
+				add(rest, claimKey(new Texture(group.rgb, group.alpha, group.rgbName)));
+			}
+		}
+		for (Texture texture : ciTextures.values()) {
+			add(rest, claimKey(texture));
+		}
+		for (Group group : groups.values()) {
+			if (group.alpha != null && group.all == null && group.rgb == null) {
+				Log.info("Ignoring " + group.alpha.getPath() + ", there is no _rgb file for it");
+				numOrphans++;
+			}
+		}
+		return rest;
+	}
+
+	private static void add(List<Texture> list, Texture texture) {
+		if (texture != null) {
+			list.add(texture);
+		}
+	}
+
+	/**
+	 * Textures are claimed in pak order, the loader only ever finds the first
+	 * entry of a CRC64
+	 *
+	 * @return The texture, added to the pak, or null if an earlier texture has
+	 *         its CRC64
+	 */
+	private Texture claimKey(Texture texture) {
+		Long key = texture.getTextureName().getCRC64();
+		File first = keys.get(key);
+		if (first != null) {
+			Log.info("Ignoring " + texture.getPrimaryFile().getPath() + ", same CRC64 " + Long.toHexString(key)
+					+ " as " + first.getPath());
+			numKeyDuplicates++;
+			return null;
+		}
+		keys.put(key, texture.getPrimaryFile());
+		textures.add(texture);
+		return texture;
+	}
+
+	private void duplicate(File file, File first) {
+		Log.info("Ignoring " + file.getPath() + ", same name as " + first.getPath());
+		numDuplicates++;
+	}
+
+	public List<Texture> getTextures() {
+		return textures;
+	}
+
+	/** @return The number of files ignored because another had their name */
+	public int getNumDuplicates() {
+		return numDuplicates;
+	}
+
+	/** @return The number of _a files ignored for lack of an _rgb file */
+	public int getNumOrphans() {
+		return numOrphans;
+	}
+
+	/** @return The number of files ignored because their name isn't a texture name */
+	public int getNumInvalid() {
+		return numInvalid;
+	}
+
+	/** @return The number of textures ignored because an earlier one had their CRC64 */
+	public int getNumKeyDuplicates() {
+		return numKeyDuplicates;
+	}
+}
@@ -0,0 +1,390 @@
+package png;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import gx.PixelSource;
+
+/**
+ * Decodes the PNGs texture packs are made of (8 bit grey, grey + alpha, RGB,
+ * RGBA and indexed, not interlaced) straight from a memory mapped file. The
+ * IDAT data is inflated and unfiltered one scanline at a time and handed out
+ * as {@link PixelSource}s in the PNG's own channel order, either in stripes
+ * of {@link #STRIPE_HEIGHT} rows or all at once. Only indexed images are
+ * expanded, through their palette.
+ *
+ * {@link #open(File)} returns null for anything else (16 bit, less than 8
+ * bits, interlaced, tRNS colour keys), those are left to ImageIO. Chunk CRCs
+ * aren't checked, the zlib checksum of the image data is once the last row
+ * has been decoded.
+ */
+public class PngDecoder {
+	/** Rows per stripe, the height of the GX RGBA8 tiles */
+	public static final int		STRIPE_HEIGHT	= 4;
+
+	private static final long	SIGNATURE		= 0x89504E470D0A1A0AL;
+	private static final int	IHDR			= 0x49484452;
+	private static final int	PLTE			= 0x504C5445;
+	private static final int	TRNS			= 0x74524E53;
+	private static final int	IDAT			= 0x49444154;
+	private static final int	IEND			= 0x49454E44;
+
+	private static final int	GREY			= 0;
+	private static final int	RGB				= 2;
+	private static final int	INDEXED			= 3;
+	private static final int	GREY_ALPHA		= 4;
+	private static final int	RGBA			= 6;
+
+	private static final int	INPUT_SIZE		= 64 * 1024;
+
+	private ByteBuffer			file;
+	private int					width, height, colourType;
+	// Bytes per pixel in the scanlines and in the pixels handed out
+	private int					channels, outChannels;
+	// Indexed images: the palette expanded to RGB or RGBA
+	private byte[]				palette;
+	private boolean				transparentPalette;
+
+	private Inflater			inflater		= new Inflater();
+	private byte[]				input			= new byte[INPUT_SIZE];
+	// Position of the next chunk after the current IDAT, and what is left of
+	// the current one
+	private int					nextChunk;
+	private int					idatPosition, idatRemaining;
+	// Filter byte + scanline, the one being decoded and the one above it
+	private byte[]				cur, prev;
+	private int					row;
+	private byte[]				stripe;
+
+	private PngDecoder(ByteBuffer file) {
+		this.file = file;
+	}
+
+	/**
+	 * Maps the file and reads the chunks up to the image data
+	 *
+	 * @return The decoder, or null if the PNG is of a kind it doesn't handle
+	 * @throws IOException
+	 *             if the file can't be read or isn't a valid PNG
+	 */
+	public static PngDecoder open(File png) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(png, "r");
+		ByteBuffer buffer;
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			// The mapping stays valid without the file
+			raf.close();
+		}
+		PngDecoder decoder = new PngDecoder(buffer);
+		if (!decoder.readHeader()) {
+			decoder.close();
+			return null;
+		}
+		return decoder;
+	}
+
+	/** @return false if the PNG is of a kind the decoder doesn't handle */
+	private boolean readHeader() throws IOException {
+		if (file.limit() < 8 + 25 || file.getLong(0) != SIGNATURE || file.getInt(12) != IHDR) {
+			throw new IOException("Not a PNG file");
+		}
+		width = file.getInt(16);
+		height = file.getInt(20);
+		int bitDepth = file.get(24), compression = file.get(26), filter = file.get(27), interlace = file.get(28);
+		colourType = file.get(25);
+		if (width <= 0 || height <= 0 || compression != 0 || filter != 0) {
+			throw new IOException("Invalid PNG header");
+		}
+		if (bitDepth != 8 || interlace != 0) {
+			return false;
+		}
+		switch (colourType) {
+		case GREY:
+		case INDEXED:
+			channels = 1;
+			break;
+		case GREY_ALPHA:
+			channels = 2;
+			break;
+		case RGB:
+			channels = 3;
+			break;
+		case RGBA:
+			channels = 4;
+			break;
+		default:
+			return false;
+		}
+
+		// Everything up to the first IDAT
+		int position = 8;
+		byte[] rgb = null, alpha = null;
+		while (true) {
+			int length = checkChunk(position);
+			int type = file.getInt(position + 4);
+			int data = position + 8;
+			if (type == PLTE && length % 3 == 0 && length <= 256 * 3) {
+				rgb = new byte[length];
+				file.position(data);
+				file.get(rgb);
+			} else if (type == TRNS) {
+				if (colourType != INDEXED) {
+					// Colour keyed transparency
+					return false;
+				}
+				alpha = new byte[Math.min(length, 256)];
+				file.position(data);
+				file.get(alpha);
+			} else if (type == IDAT) {
+				nextChunk = position;
+				break;
+			} else if (type == IEND) {
+				throw new IOException("PNG has no image data");
+			}
+			position = data + length + 4;
+		}
+
+		outChannels = channels;
+		if (colourType == INDEXED) {
+			if (rgb == null) {
+				throw new IOException("Indexed PNG has no palette");
+			}
+			transparentPalette = alpha != null;
+			outChannels = transparentPalette ? 4 : 3;
+			// Indices past the end of the palette come out black
+			palette = new byte[256 * outChannels];
+			for (int i = 0; i < rgb.length / 3; i++) {
+				System.arraycopy(rgb, i * 3, palette, i * outChannels, 3);
+				if (transparentPalette) {
+					palette[i * 4 + 3] = i < alpha.length ? alpha[i] : (byte) 0xFF;
+				}
+			}
+		}
+		if ((long) width * height * outChannels > Integer.MAX_VALUE) {
+			return false;
+		}
+		cur = new byte[1 + width * channels];
+		prev = new byte[1 + width * channels];
+		return true;
+	}
+
+	/** @return The length of the chunk at position, if it fits in the file */
+	private int checkChunk(int position) throws IOException {
+		if (position + 12 > file.limit()) {
+			throw new IOException("PNG is truncated");
+		}
+		int length = file.getInt(position);
+		if (length < 0 || length > file.limit() - position - 12) {
+			throw new IOException("PNG is truncated");
+		}
+		return length;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public boolean hasAlpha() {
+		return colourType == GREY_ALPHA || colourType == RGBA || transparentPalette;
+	}
+
+	/** @return The next row {@link #readStripe()} returns */
+	public int getRow() {
+		return row;
+	}
+
+	/** @return The PNG's colour type, for the log */
+	public String getTypeName() {
+		switch (colourType) {
+		case GREY:
+			return "PNG Grey 8bit";
+		case GREY_ALPHA:
+			return "PNG Grey+Alpha 8bit";
+		case RGB:
+			return "PNG RGB 8bit";
+		case RGBA:
+			return "PNG RGBA 8bit";
+		}
+		return transparentPalette ? "PNG Indexed+Alpha 8bit" : "PNG Indexed 8bit";
+	}
+
+	/**
+	 * Decodes the next {@link #STRIPE_HEIGHT} rows (fewer at the bottom). The
+	 * stripe's pixels are overwritten by the next call.
+	 *
+	 * @return The rows from {@link #getRow()} on, or null after the last row
+	 */
+	public PixelSource readStripe() throws IOException {
+		if (row >= height) {
+			return null;
+		}
+		int rows = Math.min(STRIPE_HEIGHT, height - row);
+		int stride = width * outChannels;
+		if (stripe == null) {
+			stripe = new byte[STRIPE_HEIGHT * stride];
+		}
+		for (int i = 0; i < rows; i++) {
+			decodeRow(stripe, i * stride);
+		}
+		return wrap(stripe, rows);
+	}
+
+	/** @return The rows from {@link #getRow()} to the bottom of the image */
+	public PixelSource readAll() throws IOException {
+		int rows = height - row;
+		int stride = width * outChannels;
+		byte[] data = new byte[rows * stride];
+		for (int i = 0; i < rows; i++) {
+			decodeRow(data, i * stride);
+		}
+		return wrap(data, rows);
+	}
+
+	public void close() {
+		inflater.end();
+		file = null;
+	}
+
+	private PixelSource wrap(byte[] data, int rows) {
+		int stride = width * outChannels;
+		switch (outChannels) {
+		case 1:
+			return PixelSource.wrap(data, width, rows, 1, stride, 0, 0, 0, -1);
+		case 2:
+			return PixelSource.wrap(data, width, rows, 2, stride, 0, 0, 0, 1);
+		case 3:
+			return PixelSource.wrap(data, width, rows, 3, stride, 0, 1, 2, -1);
+		}
+		return PixelSource.wrap(data, width, rows, 4, stride, 0, 1, 2, 3);
+	}
+
+	private void decodeRow(byte[] dest, int offset) throws IOException {
+		inflateRow();
+		unfilter();
+		if (colourType == INDEXED) {
+			for (int x = 1, o = offset; x < cur.length; x++) {
+				int p = (cur[x] & 0xFF) * outChannels;
+				for (int c = 0; c < outChannels; c++) {
+					dest[o++] = palette[p + c];
+				}
+			}
+		} else {
+			System.arraycopy(cur, 1, dest, offset, cur.length - 1);
+		}
+		byte[] above = prev;
+		prev = cur;
+		cur = above;
+		row++;
+		if (row == height) {
+			finishData();
+		}
+	}
+
+	private void inflateRow() throws IOException {
+		try {
+			int n = 0;
+			while (n < cur.length) {
+				int inflated = inflater.inflate(cur, n, cur.length - n);
+				n += inflated;
+				if (inflated == 0) {
+					if (inflater.finished() || inflater.needsDictionary()) {
+						throw new IOException("PNG image data ends early");
+					}
+					if (inflater.needsInput()) {
+						nextInput();
+					}
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("PNG image data is corrupt", e);
+		}
+	}
+
+	/**
+	 * Inflates the image data to the end of the zlib stream, the inflater
+	 * only checks the checksum there. Anything past the last row is dropped.
+	 */
+	private void finishData() throws IOException {
+		try {
+			while (!inflater.finished()) {
+				if (inflater.inflate(cur, 0, cur.length) == 0 && !inflater.finished()) {
+					if (inflater.needsDictionary()) {
+						throw new IOException("PNG image data is corrupt");
+					}
+					if (inflater.needsInput()) {
+						nextInput();
+					}
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("PNG image data is corrupt", e);
+		}
+	}
+
+	/** Feeds the inflater the next piece of IDAT data */
+	private void nextInput() throws IOException {
+		while (idatRemaining == 0) {
+			int length = checkChunk(nextChunk);
+			if (file.getInt(nextChunk + 4) != IDAT) {
+				throw new IOException("PNG image data ends early");
+			}
+			idatPosition = nextChunk + 8;
+			idatRemaining = length;
+			nextChunk = idatPosition + length + 4;
+		}
+		int n = Math.min(idatRemaining, input.length);
+		file.position(idatPosition);
+		file.get(input, 0, n);
+		idatPosition += n;
+		idatRemaining -= n;
+		inflater.setInput(input, 0, n);
+	}
+
+	private void unfilter() throws IOException {
+		int bpp = channels, n = cur.length;
+		switch (cur[0]) {
+		case 0:
+			break;
+		case 1:
+			for (int i = 1 + bpp; i < n; i++) {
+				cur[i] += cur[i - bpp];
+			}
+			break;
+		case 2:
+			for (int i = 1; i < n; i++) {
+				cur[i] += prev[i];
+			}
+			break;
+		case 3:
+			for (int i = 1; i < 1 + bpp; i++) {
+				cur[i] += (prev[i] & 0xFF) >> 1;
+			}
+			for (int i = 1 + bpp; i < n; i++) {
+				cur[i] += ((cur[i - bpp] & 0xFF) + (prev[i] & 0xFF)) >> 1;
+			}
+			break;
+		case 4:
+			for (int i = 1; i < 1 + bpp; i++) {
+				cur[i] += prev[i];
+			}
+			for (int i = 1 + bpp; i < n; i++) {
+				int a = cur[i - bpp] & 0xFF, b = prev[i] & 0xFF, c = prev[i - bpp] & 0xFF;
+				int pa = Math.abs(b - c), pb = Math.abs(a - c), pc = Math.abs(a + b - 2 * c);
+				cur[i] += pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+			}
+			break;
+		default:
+			throw new IOException("Unknown PNG filter type " + cur[0]);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package png;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * What a PNG's header says about it, read without touching the image data:
+ * the IHDR chunk and the type of every chunk up to the first IDAT, to know
+ * whether it has a tRNS chunk. A few small reads per file, so a whole
+ * texture directory can be checked before anything is decoded.
+ */
+public class PngHeader {
+	private static final long	SIGNATURE	= 0x89504E470D0A1A0AL;
+	private static final int	IHDR		= 0x49484452;
+	private static final int	TRNS		= 0x74524E53;
+	private static final int	IDAT		= 0x49444154;
+	private static final int	IEND		= 0x49454E44;
+
+	private static final int	GREY		= 0;
+	private static final int	RGB			= 2;
+	private static final int	INDEXED		= 3;
+	private static final int	GREY_ALPHA	= 4;
+	private static final int	RGBA		= 6;
+
+	private int					width, height, bitDepth, colourType, interlace;
+	private boolean				transparency;
+
+	private PngHeader() {
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the file can't be read, isn't a PNG, has an invalid
+	 *             header or no image data
+	 */
+	public static PngHeader read(File png) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(png, "r");
+		try {
+			long length = raf.length();
+			if (length < 8 + 25 || raf.readLong() != SIGNATURE || raf.readInt() != 13 || raf.readInt() != IHDR) {
+				throw new IOException("Not a PNG file");
+			}
+			PngHeader header = new PngHeader();
+			header.width = raf.readInt();
+			header.height = raf.readInt();
+			header.bitDepth = raf.readUnsignedByte();
+			header.colourType = raf.readUnsignedByte();
+			int compression = raf.readUnsignedByte(), filter = raf.readUnsignedByte();
+			header.interlace = raf.readUnsignedByte();
+			if (header.width <= 0 || header.height <= 0 || compression != 0 || filter != 0 || header.interlace > 1
+					|| !isValidDepth(header.colourType, header.bitDepth)) {
+				throw new IOException("Invalid PNG header");
+			}
+
+			// Chunk types up to the image data, skipping their contents
+			long position = 8 + 25;
+			while (true) {
+				if (position + 12 > length) {
+					throw new IOException("PNG is truncated");
+				}
+				raf.seek(position);
+				long chunkLength = raf.readInt() & 0xFFFFFFFFL;
+				int type = raf.readInt();
+				if (type == IDAT) {
+					break;
+				} else if (type == IEND) {
+					throw new IOException("PNG has no image data");
+				} else if (type == TRNS) {
+					header.transparency = true;
+				}
+				position += 12 + chunkLength;
+			}
+			return header;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/** @return Whether the PNG spec allows the bit depth for the colour type */
+	private static boolean isValidDepth(int colourType, int bitDepth) {
+		switch (colourType) {
+		case GREY:
+			return bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8 || bitDepth == 16;
+		case INDEXED:
+			return bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8;
+		case RGB:
+		case GREY_ALPHA:
+		case RGBA:
+			return bitDepth == 8 || bitDepth == 16;
+		default:
+			return false;
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public long getPixelCount() {
+		return (long) width * height;
+	}
+
+	public int getBitDepth() {
+		return bitDepth;
+	}
+
+	public int getColourType() {
+		return colourType;
+	}
+
+	/** @return Whether the image has an alpha channel or a tRNS chunk */
+	public boolean hasAlpha() {
+		return colourType == GREY_ALPHA || colourType == RGBA || transparency;
+	}
+
+	/**
+	 * @return Whether {@link PngDecoder} decodes it, rather than leaving it to
+	 *         ImageIO
+	 */
+	public boolean isDecodable() {
+		return bitDepth == 8 && interlace == 0 && (!transparency || colourType == INDEXED);
+	}
+}
@@ -0,0 +1,60 @@
+package packer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DirectoryScannerTest {
+
+	@Rule
+	public TemporaryFolder	folder	= new TemporaryFolder();
+
+	@Test
+	public void findsEveryTextureInANestedTree() throws Exception {
+		File root = folder.getRoot();
+		Set<File> expected = new HashSet<File>();
+		// Directory names with and without dots, nested a few levels deep
+		String[] directories = { "", "a", "a/b", "a/b/c", "GAME v1.0", "GAME v1.0/d", "e", "e/f.g" };
+		for (int i = 0; i < directories.length; i++) {
+			File directory = new File(root, directories[i]);
+			assertTrue(directory.isDirectory() || directory.mkdirs());
+			for (int j = 0; j < 3; j++) {
+				expected.add(write(new File(directory, "GAME#" + i + "000000" + j + "#0#2_all.png"), 1));
+			}
+			// Not textures
+			write(new File(directory, "GAME#" + i + "0000009#0#2_all.png"), 0);
+			write(new File(directory, "screenshot.png"), 1);
+			write(new File(directory, "readme.txt"), 1);
+			write(new File(directory, "notes"), 1);
+		}
+
+		final Set<File> found = new HashSet<File>();
+		assertTrue(new DirectoryScanner(4).scan(root, new DirectoryScanner.FileHandler() {
+
+			@Override
+			public void fileFound(File file) {
+				found.add(file);
+			}
+		}));
+		assertEquals(expected, found);
+	}
+
+	private static File write(File file, int length) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[length]);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
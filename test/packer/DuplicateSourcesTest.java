@@ -0,0 +1,94 @@
+package packer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DuplicateSourcesTest {
+
+	@Rule
+	public TemporaryFolder	folder	= new TemporaryFolder();
+
+	@Test
+	public void aliasesIdenticalSources() throws IOException {
+		byte[] png = png(0x336699);
+		ArchiveEntry[] entries = process(entry("GAME#00000001#0#1_all.png", png, null, null),
+				entry("GAME#00000002#0#1_all.png", png, null, null));
+		assertEquals(-1, entries[0].getAliasOf());
+		assertEquals(0, entries[1].getAliasOf());
+	}
+
+	@Test
+	public void doesNotAliasBlueAlphaWithPlain() throws IOException {
+		byte[] png = png(0x336699);
+		// Format 4 takes alpha from the blue channel, format 0 doesn't
+		ArchiveEntry[] entries = process(entry("GAME#00000001#4#1_all.png", png, null, null),
+				entry("GAME#00000002#0#1_all.png", png, null, null));
+		assertEquals(-1, entries[1].getAliasOf());
+	}
+
+	@Test
+	public void doesNotAliasDifferentAlphaSplit() throws IOException {
+		byte[] rgb = png(0x336699), alpha = png(0x808080);
+		byte[] joined = Arrays.copyOf(rgb, rgb.length + alpha.length);
+		System.arraycopy(alpha, 0, joined, rgb.length, alpha.length);
+		// Same bytes in total, part of the alpha file moved to the end of the
+		// primary one
+		int split = rgb.length + 8;
+		ArchiveEntry[] entries = process(
+				entry("GAME#00000001#0#1_rgb.png", rgb, "GAME#00000001#0#1_a.png", alpha),
+				entry("GAME#00000002#0#1_rgb.png", Arrays.copyOf(joined, split), "GAME#00000002#0#1_a.png",
+						Arrays.copyOfRange(joined, split, joined.length)));
+		assertEquals(-1, entries[1].getAliasOf());
+	}
+
+	/** Processes the entries in order against one index of sources */
+	private static ArchiveEntry[] process(ArchiveEntry... entries) {
+		DuplicateSources duplicates = new DuplicateSources();
+		for (int i = 0; i < entries.length; i++) {
+			entries[i].setSequence(i);
+			entries[i].setDuplicateSources(duplicates);
+			entries[i].process();
+		}
+		return entries;
+	}
+
+	private ArchiveEntry entry(String name, byte[] data, String alphaName, byte[] alphaData) throws IOException {
+		return new ArchiveEntry(write(name, data), alphaName != null ? write(alphaName, alphaData) : null);
+	}
+
+	private File write(String name, byte[] data) throws IOException {
+		File file = folder.newFile(name);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/** @return An 8x8 RGB PNG of one colour */
+	private static byte[] png(int rgb) throws IOException {
+		BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < 8; y++) {
+			for (int x = 0; x < 8; x++) {
+				image.setRGB(x, y, rgb);
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", out);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,53 @@
+package packer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSwapTest {
+
+	@Rule
+	public TemporaryFolder	folder	= new TemporaryFolder();
+
+	@Test
+	public void commitKeepsNewFile() throws IOException {
+		File target = write("a.pak", "old");
+		FileSwap.replace(write("a.pak.tmp", "new"), target).commit();
+		assertContents(target, "new");
+		assertFalse(new File(target.getPath() + ".bak").exists());
+	}
+
+	@Test
+	public void rollbackRestoresOldFile() throws IOException {
+		File target = write("a.pak", "old");
+		FileSwap swap = FileSwap.replace(write("a.pak.tmp", "new"), target);
+		assertContents(target, "new");
+		swap.rollback();
+		assertContents(target, "old");
+		assertFalse(new File(target.getPath() + ".bak").exists());
+	}
+
+	@Test
+	public void rollbackRemovesFileThatWasNotThere() throws IOException {
+		File target = new File(folder.getRoot(), "a.pak");
+		FileSwap.replace(write("a.pak.tmp", "new"), target).rollback();
+		assertFalse(target.exists());
+	}
+
+	private File write(String name, String contents) throws IOException {
+		File file = folder.newFile(name);
+		Files.write(file.toPath(), contents.getBytes("UTF-8"));
+		return file;
+	}
+
+	private static void assertContents(File file, String contents) throws IOException {
+		assertArrayEquals(contents.getBytes("UTF-8"), Files.readAllBytes(file.toPath()));
+	}
+}
@@ -0,0 +1,109 @@
+package png;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PngDecoderTest {
+
+	@Rule
+	public TemporaryFolder	folder	= new TemporaryFolder();
+
+	@Test
+	public void decodesImage() throws IOException {
+		PngDecoder decoder = PngDecoder.open(write(png(false)));
+		try {
+			assertNotNull(decoder.readAll());
+			assertNull(decoder.readStripe());
+		} finally {
+			decoder.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void checksImageDataChecksum() throws IOException {
+		PngDecoder decoder = PngDecoder.open(write(png(true)));
+		try {
+			decoder.readAll();
+		} finally {
+			decoder.close();
+		}
+	}
+
+	private File write(byte[] data) throws IOException {
+		File file = folder.newFile();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * @return A 64x64 RGB PNG, its zlib checksum in an IDAT chunk of its own
+	 *         after the ones with the rows, broken if asked for
+	 */
+	private static byte[] png(boolean badChecksum) throws IOException {
+		BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < 64; y++) {
+			for (int x = 0; x < 64; x++) {
+				image.setRGB(x, y, x * 0x040000 + y * 0x0400);
+			}
+		}
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", encoded);
+		ByteBuffer in = ByteBuffer.wrap(encoded.toByteArray());
+		ByteArrayOutputStream idat = new ByteArrayOutputStream();
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(png);
+		out.writeLong(in.getLong());
+		while (in.hasRemaining()) {
+			byte[] data = new byte[in.getInt()];
+			int type = in.getInt();
+			in.get(data);
+			in.getInt();
+			if (type == 0x49444154) {
+				idat.write(data);
+				continue;
+			}
+			if (idat.size() > 0) {
+				byte[] stream = idat.toByteArray();
+				if (badChecksum) {
+					stream[stream.length - 1] ^= 0xFF;
+				}
+				chunk(out, 0x49444154, stream, 0, stream.length - 4);
+				chunk(out, 0x49444154, stream, stream.length - 4, 4);
+				idat.reset();
+			}
+			chunk(out, type, data, 0, data.length);
+		}
+		return png.toByteArray();
+	}
+
+	private static void chunk(DataOutputStream out, int type, byte[] data, int offset, int length)
+			throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(ByteBuffer.allocate(4).putInt(type).array());
+		crc.update(data, offset, length);
+		out.writeInt(length);
+		out.writeInt(type);
+		out.write(data, offset, length);
+		out.writeInt((int) crc.getValue());
+	}
+}